@@ -0,0 +1,95 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.hw;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Physical memory kept outside of the java heap, either in a direct
+ * buffer or mapped onto a file. Words are stored in native byte order.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class BufferRAM extends RAM {
+	/**
+	 * The packed words
+	 */
+	private LongBuffer words;
+
+	/**
+	 * Memory in a direct buffer
+	 * @param geometry
+	 */
+	public BufferRAM(Geometry geometry) {
+		super(checkSize(geometry), false);
+		words = ByteBuffer.allocateDirect(size*8).order(ByteOrder.nativeOrder()).asLongBuffer();
+		trace.info("direct memory of "+size+" words");
+		clear();
+	}
+
+	/**
+	 * Check that a memory of the given shape fits in one buffer, before
+	 * anything is allocated for it
+	 * @param geometry
+	 * @return The geometry
+	 * @throws IllegalArgumentException if it holds more than Integer.MAX_VALUE bytes
+	 */
+	private static Geometry checkSize(Geometry geometry) {
+		long bytes = (long) geometry.getFrames() * geometry.getWordsPerFrame() * 8;
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("memory of "+(bytes / 8)+" words does not fit in a buffer of at most "
+					+Integer.MAX_VALUE+" bytes");
+		}
+		return geometry;
+	}
+
+	/**
+	 * Memory mapped onto the given file, the file is created or resized as needed
+	 * @param geometry
+	 * @param file
+	 * @throws IOException
+	 */
+	public BufferRAM(Geometry geometry, File file) throws IOException {
+		super(checkSize(geometry), false);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			//The mapping stays valid after the channel is closed
+			words = channel.map(FileChannel.MapMode.READ_WRITE, 0, size*8L)
+					.order(ByteOrder.nativeOrder()).asLongBuffer();
+		} finally {
+			raf.close();
+		}
+		trace.info("memory of "+size+" words mapped to "+file);
+		clear();
+	}
+
+	@Override
+	protected long getWord(int addr) {
+		return words.get(addr);
+	}
+
+	@Override
+	protected void putWord(int addr, long word) {
+		words.put(addr, word);
+	}
+
+	@Override
+	protected void fillWords(int from, int to, long word) {
+		for (int i = from; i < to; i++) {
+			words.put(i, word);
+		}
+	}
+}
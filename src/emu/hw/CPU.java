@@ -32,17 +32,25 @@ public class CPU {
 	public static final String PUT     = "PD";
 	public static final String HALT    = "H   ";
 	/**
-	 * Self Reference 
+	 * Instruction Register, packed
 	 */
-	static CPU ref;
+	long ir;
 	/**
-	 * Instruction Register
+	 * Predecoded form of the instruction register
 	 */
-	String ir;
+	Instruction decoded;
 	/**
-	 * General Register
+	 * General Register, packed
 	 */
-	String gr;
+	long gr;
+	/**
+	 * Set once the general register has been loaded
+	 */
+	boolean grLoaded;
+	/**
+	 * Set when the last fetch raised a page fault
+	 */
+	boolean fetchFault;
 	/**
 	 * Page Table Register
 	 */
@@ -64,21 +72,42 @@ public class CPU {
 	 */
 	int clock;
 	/**
-	 * System interrupt
+	 * Countdown of instructions left in the current time budget
+	 */
+	int timer;
+	/**
+	 * Instructions completed by the last run
+	 */
+	int ticks;
+	/**
+	 * Interrupt registers packed into one bitfield, each register holds
+	 * the ordinal of its Interrupt in a 4 bit field. CLEAR is 0.
+	 */
+	int interrupts;
+	/**
+	 * System interrupt field
 	 */
-	Interrupt si;
+	static final int SI = 0;
 	/**
-	 * Program interrupt	
+	 * Program interrupt field
 	 */
-	Interrupt pi;
+	static final int PI = 4;
 	/**
-	 * time interrupt
+	 * time interrupt field
 	 */
-	Interrupt ti;
+	static final int TI = 8;
 	/** 
-	 * input and output interrupt
+	 * input and output interrupt field
+	 */
+	static final int IOI = 12;
+	/**
+	 * Width mask of an interrupt field
+	 */
+	static final int FIELD = 0xF;
+	/**
+	 * Fields that return control to the kernel when set
 	 */
-	Interrupt ioi;
+	static final int PENDING = (FIELD << SI) | (FIELD << PI) | (FIELD << TI);
 	/**
 	 * Memory Management Unit
 	 */
@@ -128,9 +157,27 @@ public class CPU {
 		public int getRetval(){
 			return retval;
 		}
+		/**
+		 * Interrupts indexed by ordinal, values() clones on every call
+		 */
+		static final Interrupt[] ORDINALS = values();
+		/**
+		 * Lowest retval, retvals are contiguous from here
+		 */
+		static final int FIRST_RETVAL = 515;
+		/**
+		 * Interrupts indexed by retval - FIRST_RETVAL
+		 */
+		private static final Interrupt[] RETVALS = new Interrupt[ORDINALS.length];
+		static {
+			for (Interrupt i: ORDINALS) {
+				RETVALS[i.getRetval() - FIRST_RETVAL] = i;
+			}
+		}
 		public static Interrupt set(int irValue) {
-			for (Interrupt i: values()) {
-				if (i.getRetval() == irValue) return i;
+			int index = irValue - FIRST_RETVAL;
+			if (index >= 0 && index < RETVALS.length) {
+				return RETVALS[index];
 			}
 			return CLEAR;
 		}
@@ -138,12 +185,15 @@ public class CPU {
 	}
 	
 	/**
-	 * Initialize CPU
+	 * Initialize a CPU in front of the given MMU. Each CPU and its MMU 
+	 * form a machine of their own.
+	 * @param mmu
 	 */
-	private CPU() {
+	public CPU(MMU mmu) {
 		clearInterrupts();
 		trace.info(dumpInterupts());
-		mmu = new MMU(300,4,10);
+		this.mmu = mmu;
+		mmu.setCpu(this);
 	}
 	
 	/**
@@ -158,19 +208,6 @@ public class CPU {
 				"ioi="+getIOi().getValue();
 	}
 
-	/**
-	 * 
-	 * @return
-	 */
-	public static CPU getInstance() {
-
-		if (ref == null) {
-			ref = new CPU();
-		}
-
-		return ref;
-		
-	}
 	/**
 	 * All the valid interrupt types
 	 * @author wmosley
@@ -190,7 +227,7 @@ public class CPU {
 	 * @return
 	 */
 	public String getIr() {
-		return ir;
+		return decoded == null ? null : decoded.toString();
 	}
 
 	/**
@@ -198,7 +235,59 @@ public class CPU {
 	 * @param ir
 	 */
 	public void setIr(String ir) {
-		this.ir = ir;
+		this.decoded = (ir == null) ? null : Instruction.decode(ir, mmu.getGeometry());
+		this.ir = (ir == null) ? 0 : decoded.getWord();
+	}
+	
+	/**
+	 * get general register
+	 * @return
+	 */
+	public String getGr() {
+		return grLoaded ? Word.toString(gr, mmu.getGeometry().getWordLength()) : null;
+	}
+
+	/**
+	 * get the packed general register
+	 * @return
+	 */
+	public long getGrWord() {
+		return gr;
+	}
+
+	/**
+	 * Indicate whether the general register has been loaded
+	 * @return
+	 */
+	public boolean isGrLoaded() {
+		return grLoaded;
+	}
+
+	/**
+	 * set the general register
+	 * @param gr packed word
+	 * @param loaded false leaves the register empty
+	 */
+	public void setGr(long gr, boolean loaded) {
+		this.gr = gr;
+		this.grLoaded = loaded;
+	}
+
+	/**
+	 * get the predecoded instruction register
+	 * @return
+	 */
+	public Instruction getInstruction() {
+		return decoded;
+	}
+
+	/**
+	 * set the instruction register from a predecoded instruction
+	 * @param instruction null clears the register
+	 */
+	public void setInstruction(Instruction instruction) {
+		this.decoded = instruction;
+		this.ir = (instruction == null) ? 0 : instruction.getWord();
 	}
 
 	/**
@@ -250,7 +339,7 @@ public class CPU {
 	 * @return
 	 */
 	public Interrupt getSi() {
-		return si;
+		return get(SI);
 	}
 
 	/**
@@ -260,10 +349,10 @@ public class CPU {
 	public void setSi(Interrupt si) {
 		if (si.getType().equals(InterruptType.SUPERVISOR)
 				|| si.getType().equals(InterruptType.MASTER))
-			this.si = si;
+			set(SI, si);
 		else {
 			trace.log(Level.SEVERE,"You tried to set the incorrect interrupt for Supervisor Interrupt: " +si);
-			this.pi = Interrupt.WRONGTYPE;
+			set(PI, Interrupt.WRONGTYPE);
 		}
 	}
 	
@@ -281,7 +370,7 @@ public class CPU {
 	 * @return
 	 */
 	public Interrupt getPi() {
-		return pi;
+		return get(PI);
 	}
 
 	/**
@@ -291,10 +380,10 @@ public class CPU {
 	public void setPi(Interrupt pi) {
 		if (pi.getType().equals(InterruptType.PROGRAM)
 				|| pi.getType().equals(InterruptType.MASTER))
-			this.pi = pi;
+			set(PI, pi);
 		else {
 			trace.log(Level.SEVERE,"You tried to set the incorrect interrupt for Program Interrupt: " +pi);
-			this.pi = Interrupt.WRONGTYPE;
+			set(PI, Interrupt.WRONGTYPE);
 		}
 	}
 	
@@ -312,7 +401,7 @@ public class CPU {
 	 * @return
 	 */
 	public Interrupt getTi() {
-		return ti;
+		return get(TI);
 	}
 
 	/**
@@ -322,10 +411,10 @@ public class CPU {
 	public void setTi(Interrupt ti) {
 		if (ti.getType().equals(InterruptType.TIME)
 				|| ti.getType().equals(InterruptType.MASTER))
-			this.ti = ti;
+			set(TI, ti);
 		else {
 			trace.log(Level.SEVERE,"You tried to set the incorrect interrupt for Time Interrupt: " +ti);
-			this.ti = Interrupt.WRONGTYPE;
+			set(TI, Interrupt.WRONGTYPE);
 		}
 	}
 	
@@ -343,7 +432,7 @@ public class CPU {
 	 * @return
 	 */
 	public Interrupt getIOi() {
-		return ioi;
+		return get(IOI);
 	}
 
 	/**
@@ -353,10 +442,10 @@ public class CPU {
 	public void setIOi(Interrupt ioi) {
 		if (ioi.getType().equals(InterruptType.IO)
 				|| ioi.getType().equals(InterruptType.MASTER))
-			this.ioi = ioi;
+			set(IOI, ioi);
 		else {
 			trace.log(Level.SEVERE,"You tried to set the incorrect interrupt for Time Interrupt: " +ioi);
-			this.ioi = Interrupt.WRONGTYPE;
+			set(IOI, Interrupt.WRONGTYPE);
 		}
 	}
 	
@@ -370,102 +459,218 @@ public class CPU {
 	}
 	
 	/**
-	 * get instruction in instruction register
+	 * Read one interrupt register from the bitfield
+	 * @param field
+	 * @return
+	 */
+	private Interrupt get(int field) {
+		return Interrupt.ORDINALS[(interrupts >>> field) & FIELD];
+	}
+	
+	/**
+	 * Write one interrupt register into the bitfield
+	 * @param field
+	 * @param i
+	 */
+	private void set(int field, Interrupt i) {
+		interrupts = (interrupts & ~(FIELD << field)) | (i.ordinal() << field);
+	}
+	
+	/**
+	 * True if SI, PI or TI is set
+	 * @return
+	 */
+	public boolean isInterruptPending() {
+		return (interrupts & PENDING) != 0;
+	}
+	
+	/**
+	 * The packed interrupt registers
+	 * @return
+	 */
+	public int getInterrupts() {
+		return interrupts;
+	}
+	
+	/**
+	 * Restore the packed interrupt registers
+	 * @param interrupts
+	 */
+	public void setInterrupts(int interrupts) {
+		this.interrupts = interrupts;
+	}
+	
+	/**
+	 * get the predecoded operand of the instruction register
 	 * @return
 	 * @throws HardwareInterruptException 
 	 */
 	public int getOperand() {
-		
-		int retval = -1; 
-		try {
-			retval = Integer.parseInt(ir.substring(2,4));
-			trace.fine("operand: "+retval);
-		} catch (NumberFormatException e) {
-			trace.severe("invalid operand format:"+ir.substring(2,4));
-		}
-			
-		if (retval < 0 || retval > 100){
-			retval = Interrupt.OPERAND_ERROR.getRetval();
-		}
-		return retval;
+		return decoded.getOperand();
+	}
+	
+	/**
+	 * get the logical page holding the operand of the instruction register
+	 * @return The page or -1 if the operand is not a valid address
+	 */
+	public int getOperandPage() {
+		int operand = decoded.getOperand();
+		return operand < 0 ? -1 : operand / mmu.getGeometry().getWordsPerFrame();
+	}
+	
+	/**
+	 * The program interrupt raised by the operand of the instruction register
+	 * @return OPERAND_ERROR if the operand is not a valid address, otherwise CLEAR
+	 */
+	public Interrupt getOperandInterrupt() {
+		return decoded.getOperand() == Instruction.INVALID_OPERAND ? Interrupt.OPERAND_ERROR : Interrupt.CLEAR;
 	}
 	
 	/**
 	 * Execute an instruction
 	 * @param memory
+	 * @return true if the instruction raised an interrupt
 	 * @throws HardwareInterruptException
-	 * @throws SoftwareInterruptException
 	 */
-	public void execute() throws HardwareInterruptException {
+	public boolean execute() throws HardwareInterruptException {
 		trace.finer("-->");
-		trace.info(toString());
+		if (trace.isLoggable(Level.INFO))
+			trace.info(toString());
 		clock++;
 		int logicalAddr = 0;
-		if (ir.startsWith(LOAD)) {
+		switch (decoded.getOpcode()) {
+		case LOAD:
 			logicalAddr = getOperand();
-			pi = Interrupt.set(logicalAddr);
-			if (pi == Interrupt.CLEAR) {
-				gr = mmu.load(logicalAddr);
-				trace.info("r<-"+gr);
+			set(PI, getOperandInterrupt());
+			if (get(PI) == Interrupt.CLEAR) {
+				long word = mmu.loadWord(logicalAddr);
+				if (get(PI) == Interrupt.CLEAR) {
+					gr = word;
+					grLoaded = true;
+					if (trace.isLoggable(Level.INFO))
+						trace.info("r<-"+getGr());
+				}
 			}
-		}else if (ir.startsWith(STORE)) {
-			if (gr == null)
-				pi = Interrupt.OPERAND_ERROR;
+			break;
+		case STORE:
+			if (!grLoaded)
+				set(PI, Interrupt.OPERAND_ERROR);
 			else {
 				logicalAddr = getOperand();
-				pi = Interrupt.set(logicalAddr);
-					if (pi == Interrupt.CLEAR)
-						mmu.store(logicalAddr,gr);
+				set(PI, getOperandInterrupt());
+					if (get(PI) == Interrupt.CLEAR)
+						mmu.storeWord(logicalAddr,gr);
 			}
-		}else if (ir.startsWith(COMPARE)) {
+			break;
+		case COMPARE:
 			logicalAddr = getOperand();
-			pi = Interrupt.set(logicalAddr);
-				if (pi == Interrupt.CLEAR) {
-					c = mmu.load(logicalAddr).equals(gr);
-					trace.info("c<-"+c);
+			set(PI, getOperandInterrupt());
+				if (get(PI) == Interrupt.CLEAR) {
+					long word = mmu.loadWord(logicalAddr);
+					if (get(PI) == Interrupt.CLEAR) {
+						c = grLoaded && word == gr;
+						if (trace.isLoggable(Level.INFO))
+							trace.info("c<-"+c);
+					}
 				}
-		}else if (ir.startsWith(BRANCH)) {
+			break;
+		case BRANCH:
 			if (c) {
 				logicalAddr = getOperand();
-				pi = Interrupt.set(logicalAddr);
-					if (pi == Interrupt.CLEAR)
+				set(PI, getOperandInterrupt());
+					if (get(PI) == Interrupt.CLEAR)
 						ic = logicalAddr;
-			}			
-		}else if (ir.startsWith(GET)) {
-			si = Interrupt.READ;
-			//trace.info("si<-"+Interrupt.READ.getValue());
-		}else if (ir.startsWith(PUT)) {
-			si = Interrupt.WRITE;
-			//trace.info("<-"+Interrupt.WRITE.getValue());
-		}else if (ir.startsWith(HALT)) {
-			si = Interrupt.TERMINATE;	
-			//trace.info("si<-"+Interrupt.TERMINATE.getValue());
-		}else {
-			trace.severe("unknown operation:"+ir);
-			pi = Interrupt.OPERATION_ERROR;
+			}
+			break;
+		case GET:
+			set(SI, Interrupt.READ);
+			break;
+		case PUT:
+			set(SI, Interrupt.WRITE);
+			break;
+		case HALT:
+			set(SI, Interrupt.TERMINATE);
+			break;
+		default:
+			trace.severe("unknown operation:"+getIr());
+			set(PI, Interrupt.OPERATION_ERROR);
 		}
 		
 		/*
-		 * wait until all instructions have been handled before throwing
-		 * exception
+		 * wait until all instructions have been handled before reporting
+		 * the interrupt
 		 */
-		if (ti != Interrupt.CLEAR
-				|| si != Interrupt.CLEAR
-				|| pi != Interrupt.CLEAR){
+		if (isInterruptPending()) {
 			trace.finer("<--");
-			throw new HardwareInterruptException();
+			return true;
 		}
 		trace.finer("<--");
+		return false;
 	}
 	
 	/**
-	 * Load an instruction into IR 
+	 * Load an instruction into IR, using the predecoded form of the word
 	 * @param memory
+	 * @return false if the fetch raised a page fault, IR is left unchanged
 	 * @throws HardwareInterruptException 
 	 */
-	public void fetch() throws HardwareInterruptException {
-		ir = mmu.load(ic);
-		trace.info(ir+" from logical address "+ic);
+	public boolean fetch() throws HardwareInterruptException {
+		Instruction instruction = mmu.fetch(ic);
+		fetchFault = instruction == null;
+		if (fetchFault) {
+			return false;
+		}
+		decoded = instruction;
+		ir = decoded.getWord();
+		if (trace.isLoggable(Level.INFO))
+			trace.info(getIr()+" from logical address "+ic);
+		return true;
+	}
+	
+	/**
+	 * Executes instructions back to back until one of them raises an interrupt
+	 * or the timer runs out, in which case TI is set to TIME_ERROR.
+	 * The pending interrupt is left in the interrupt registers and the number 
+	 * of instructions completed is available from getTicks().
+	 * @throws HardwareInterruptException on an emulator fault
+	 */
+	public void run() throws HardwareInterruptException {
+		trace.finer("-->");
+		ticks = 0;
+		while (fetch()) {
+			increment();
+			if (execute()) {
+				break;
+			}
+			ticks++;
+			if (--timer < 0) {
+				trace.fine("timer expired after "+ticks+" instructions");
+				set(TI, Interrupt.TIME_ERROR);
+				break;
+			}
+		}
+		trace.finer("<--");
+	}
+	
+	/**
+	 * Load the timer with the number of instructions that may complete
+	 * before a time interrupt is raised.
+	 * @param timer
+	 */
+	public void setTimer(int timer) {
+		this.timer = timer;
+	}
+	
+	public int getTimer() {
+		return timer;
+	}
+	
+	/**
+	 * Number of instructions completed by the last run.
+	 * @return
+	 */
+	public int getTicks() {
+		return ticks;
 	}
 	
 	/**
@@ -473,7 +678,8 @@ public class CPU {
 	 */
 	public void increment() {
 		 ic++;
-		 trace.info("ic<-"+ic);
+		 if (trace.isLoggable(Level.INFO))
+			 trace.info("ic<-"+ic);
 	}
 
 	/**
@@ -488,7 +694,7 @@ public class CPU {
 	 * String representation of the the current state.
 	 */
 	public String toString() {
-		return "ic="+ic+" ir="+ir+" gr="+gr+" c="+getCString()+" "+dumpInterupts();
+		return "ic="+ic+" ir="+getIr()+" gr="+getGr()+" c="+getCString()+" "+dumpInterupts();
 		
 	}
 	
@@ -497,7 +703,7 @@ public class CPU {
 	 * @return
 	 */
 	public String getState() {
-		return ic+"    "+ir+"    "+gr+"    "+getCString();
+		return ic+"    "+getIr()+"    "+getGr()+"    "+getCString();
 	}
 	
 	public int getPtr() {
@@ -516,20 +722,168 @@ public class CPU {
 		return mmu.toString();
 	}
 
+	/**
+	 * Shape of the machine
+	 * @return
+	 */
+	public Geometry getGeometry() {
+		return mmu.getGeometry();
+	}
+	
+	/**
+	 * Drop the translations cached by the MMU's TLB
+	 */
+	public void flushTlb() {
+		mmu.flushTlb();
+	}
+	
+	/**
+	 * Translations answered by the MMU's TLB
+	 * @return
+	 */
+	public long getTlbHits() {
+		return mmu.getTlbHits();
+	}
+	
+	/**
+	 * Translations that missed the MMU's TLB
+	 * @return
+	 */
+	public long getTlbMisses() {
+		return mmu.getTlbMisses();
+	}
+	
+	/**
+	 * Indicate whether the last run stopped on a page fault fetching an 
+	 * instruction, in which case IC was not advanced
+	 * @return
+	 */
+	public boolean isFetchFault() {
+		return fetchFault;
+	}
+	
+	/**
+	 * Logical page of the last page fault
+	 * @return
+	 */
+	public int getFaultPage() {
+		return mmu.getFaultAddr() / mmu.getGeometry().getWordsPerFrame();
+	}
+	
+	/**
+	 * Indicate whether the given page was evicted to swap
+	 * @param page
+	 * @return
+	 */
+	public boolean isSwapped(int page) {
+		return mmu.isSwapped(page);
+	}
+	
+	/**
+	 * Bring an evicted page back from swap
+	 * @param page
+	 * @return The frame now holding the page
+	 */
+	public int swapIn(int page) {
+		return mmu.swapIn(page);
+	}
+	
+	/**
+	 * Number of demand zero faults the MMU resolved without a page fault
+	 * @return
+	 */
+	public long getDemandZeroFaults() {
+		return mmu.getDemandZeroFaults();
+	}
+	
+	/**
+	 * Allocate ahead of time the pages the program will write with GD and SR
+	 * @param programPages Number of pages holding the program
+	 * @return The number of pages allocated
+	 */
+	public int prepage(int programPages) {
+		return mmu.prepage(programPages);
+	}
+	
+	/**
+	 * Number of program pages that shared a frame
+	 * @return
+	 */
+	public long getSharedHits() {
+		return mmu.getSharedHits();
+	}
+	
+	/**
+	 * Number of shared pages copied on a write
+	 * @return
+	 */
+	public long getCopiesOnWrite() {
+		return mmu.getCopiesOnWrite();
+	}
+	
+	/**
+	 * Number of page faults raised
+	 * @return
+	 */
+	public long getPageFaults() {
+		return mmu.getPageFaults();
+	}
+	
+	/**
+	 * Number of pages allocated by prepage()
+	 * @return
+	 */
+	public long getPrepaged() {
+		return mmu.getPrepaged();
+	}
+	
+	/**
+	 * Number of prepaged pages that were written
+	 * @return
+	 */
+	public long getPrepagedUsed() {
+		return mmu.getPrepagedUsed();
+	}
+	
+	/**
+	 * Demand paging statistics, null when paging is off
+	 * @return
+	 */
+	public Pager getPager() {
+		return mmu.getPager();
+	}
+	
+	/**
+	 * Clear free frames while no process needs the CPU
+	 * @param max Most frames to clear
+	 * @return The number of frames cleared
+	 */
+	public int cleanFreeFrames(int max) {
+		return mmu.cleanFreeFrames(max);
+	}
+	
+	/**
+	 * Frame allocation statistics
+	 * @return
+	 */
+	public FrameAllocator getFrameAllocator() {
+		return mmu.getFrameAllocator();
+	}
+	
 	/**
 	 * Checks if the page fault is valid based on the IR
 	 * @return
 	 */
 	public boolean validatePageFault() {
 
-		if (ir == null 
-				|| ir.startsWith(CPU.GET)
-				|| ir.startsWith(CPU.STORE)) {
-			trace.info("valid page fault on IR="+ir);
+		if (decoded == null 
+				|| decoded.getOpcode() == Instruction.Opcode.GET
+				|| decoded.getOpcode() == Instruction.Opcode.STORE) {
+			trace.info("valid page fault on IR="+getIr());
 			return true;
 		}
 		else {
-			trace.severe("invalid page fault on IR="+ir);
+			trace.severe("invalid page fault on IR="+getIr());
 			return false;
 		}
 	}
@@ -547,6 +901,31 @@ public class CPU {
 		trace.finer("<--");
 	}
 	
+	/**
+	 * Place a program page, sharing the frame of an identical page if 
+	 * sharing is on. The page is predecoded.
+	 * @param page
+	 * @param data
+	 * @return The frame holding the page
+	 * @throws HardwareInterruptException
+	 */
+	public int loadPage(int page, String data) throws HardwareInterruptException {
+		trace.finer("-->");
+		int frame = mmu.loadPage(page, data);
+		trace.info(frame+"<-"+data);
+		trace.finer("<--");
+		return frame;
+	}
+	
+	/**
+	 * Decode the instructions in the given frame ahead of execution.
+	 * @param frame
+	 * @throws HardwareInterruptException
+	 */
+	public void predecodeFrame(int frame) throws HardwareInterruptException {
+		mmu.predecodeFrame(frame);
+	}
+	
 	/**
 	 * Write a block of data to the given logical addr 
 	 * @param logicalAddr
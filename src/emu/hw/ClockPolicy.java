@@ -0,0 +1,77 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.hw;
+
+/**
+ * Second chance replacement. A hand sweeps the frames, clearing reference
+ * bits, and evicts the first page it finds unreferenced.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class ClockPolicy implements ReplacementPolicy {
+	/**
+	 * Frames holding a pageable page
+	 */
+	protected boolean[] resident;
+	/**
+	 * Reference bit of each frame
+	 */
+	protected boolean[] referenced;
+	/**
+	 * Next frame to inspect
+	 */
+	protected int hand;
+
+	public ClockPolicy(int frames) {
+		resident = new boolean[frames];
+		referenced = new boolean[frames];
+	}
+
+	public void loaded(int frame, long time) {
+		resident[frame] = true;
+		referenced[frame] = true;
+	}
+
+	public void referenced(int frame, long time) {
+		referenced[frame] = true;
+	}
+
+	public void removed(int frame) {
+		resident[frame] = false;
+		referenced[frame] = false;
+	}
+
+	public int selectVictim(long time) {
+		//Two sweeps clear every reference bit, so a third is never needed
+		for (int i = 0; i < 2*resident.length; i++) {
+			int frame = advance();
+			if (resident[frame]) {
+				if (!referenced[frame]) {
+					return frame;
+				}
+				referenced[frame] = false;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Move the hand to the next frame
+	 * @return The frame the hand was on
+	 */
+	protected int advance() {
+		int frame = hand;
+		hand = (hand + 1) % resident.length;
+		return frame;
+	}
+
+	public String getName() {
+		return "clock";
+	}
+}
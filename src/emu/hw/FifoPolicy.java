@@ -0,0 +1,53 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.hw;
+
+import java.util.Arrays;
+
+/**
+ * Evicts the page that has been resident the longest
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class FifoPolicy implements ReplacementPolicy {
+	/**
+	 * When each frame was loaded, -1 if it holds no pageable page
+	 */
+	private long[] loadTime;
+
+	public FifoPolicy(int frames) {
+		loadTime = new long[frames];
+		Arrays.fill(loadTime, -1);
+	}
+
+	public void loaded(int frame, long time) {
+		loadTime[frame] = time;
+	}
+
+	public void referenced(int frame, long time) {
+	}
+
+	public void removed(int frame) {
+		loadTime[frame] = -1;
+	}
+
+	public int selectVictim(long time) {
+		int victim = -1;
+		for (int i = 0; i < loadTime.length; i++) {
+			if (loadTime[i] >= 0 && (victim < 0 || loadTime[i] < loadTime[victim])) {
+				victim = i;
+			}
+		}
+		return victim;
+	}
+
+	public String getName() {
+		return "fifo";
+	}
+}
@@ -0,0 +1,287 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.hw;
+
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of free frames. Allocating, freeing and checking a frame
+ * are all constant time. Free frames are kept in a stack with each
+ * frame's position in the stack indexed so any frame can be pulled out.
+ * The stack is split in two, clean frames that have been cleared since
+ * they were last used come first and are handed out before dirty ones.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class FrameAllocator {
+	/**
+	 * For tracing
+	 */
+	static Logger trace = Logger.getLogger("emuos");
+	/**
+	 * Marks an allocated frame in the position index
+	 */
+	private static final int ALLOCATED = -1;
+	/**
+	 * Stack of free frames, the first cleanCount entries are clean and 
+	 * the rest up to count are dirty
+	 */
+	private int[] free;
+	/**
+	 * Number of free frames
+	 */
+	private int count;
+	/**
+	 * Number of clean free frames
+	 */
+	private int cleanCount;
+	/**
+	 * Index of each frame in the free stack, ALLOCATED if it is in use
+	 */
+	private int[] position;
+	/**
+	 * Frames that may hold data from their last use
+	 */
+	private boolean[] dirty;
+	/**
+	 * Picks a random free frame when set, otherwise the most recently freed
+	 * frame is reused first
+	 */
+	private Random random;
+	/**
+	 * Allocations served from the clean pool
+	 */
+	private long cleanHits;
+	/**
+	 * Allocations of dirty frames, which have to be cleared on demand
+	 */
+	private long dirtyAllocations;
+	/**
+	 * Frames cleaned while they were free
+	 */
+	private long cleaned;
+
+	/**
+	 * Constructor, all frames start out free and clean and are handed out lowest first
+	 * @param frames
+	 */
+	public FrameAllocator(int frames) {
+		free = new int[frames];
+		position = new int[frames];
+		dirty = new boolean[frames];
+		for (int i = 0; i < frames; i++) {
+			free[i] = frames - 1 - i;
+			position[frames - 1 - i] = i;
+		}
+		count = frames;
+		cleanCount = frames;
+	}
+
+	/**
+	 * Place frames randomly. The same seed gives the same placement.
+	 * @param seed
+	 */
+	public void setRandomPlacement(long seed) {
+		random = new Random(seed);
+	}
+
+	/**
+	 * Go back to reusing the most recently freed frame first
+	 */
+	public void setSequentialPlacement() {
+		random = null;
+	}
+
+	/**
+	 * Take a free frame, clean ones first. The caller must clear the frame
+	 * if isDirty() is true for it.
+	 * @return The frame or -1 if every frame is allocated
+	 */
+	public int allocate() {
+		if (count == 0) {
+			return -1;
+		}
+		int index;
+		if (cleanCount > 0) {
+			index = random == null ? cleanCount - 1 : random.nextInt(cleanCount);
+			cleanHits++;
+		} else {
+			index = random == null ? count - 1 : random.nextInt(count);
+			dirtyAllocations++;
+		}
+		int frame = free[index];
+		remove(index);
+		return frame;
+	}
+
+	/**
+	 * Take the given frame out of the free pool
+	 * @param frame
+	 * @return false if it was already allocated
+	 */
+	public boolean allocate(int frame) {
+		int index = position[frame];
+		if (index == ALLOCATED) {
+			return false;
+		}
+		remove(index);
+		return true;
+	}
+
+	/**
+	 * Return a frame to the free pool, it is dirty until it is cleaned
+	 * @param frame
+	 * @return false if the frame was already free
+	 */
+	public boolean free(int frame) {
+		if (position[frame] != ALLOCATED) {
+			trace.warning("frame "+frame+" freed twice");
+			return false;
+		}
+		free[count] = frame;
+		position[frame] = count;
+		dirty[frame] = true;
+		count++;
+		return true;
+	}
+
+	/**
+	 * A free dirty frame to be cleaned
+	 * @return The frame or -1 if every free frame is clean
+	 */
+	public int nextDirty() {
+		return cleanCount < count ? free[count - 1] : -1;
+	}
+
+	/**
+	 * Record that the given frame has been cleared. A free frame moves
+	 * into the clean pool.
+	 * @param frame
+	 */
+	public void markClean(int frame) {
+		if (!dirty[frame]) {
+			return;
+		}
+		dirty[frame] = false;
+		int index = position[frame];
+		if (index != ALLOCATED) {
+			swap(index, cleanCount);
+			cleanCount++;
+			cleaned++;
+		}
+	}
+
+	/**
+	 * Indicate whether the given frame may hold data from its last use
+	 * @param frame
+	 * @return
+	 */
+	public boolean isDirty(int frame) {
+		return dirty[frame];
+	}
+
+	/**
+	 * Indicate whether the given frame is allocated
+	 * @param frame
+	 * @return
+	 */
+	public boolean isAllocated(int frame) {
+		return position[frame] == ALLOCATED;
+	}
+
+	/**
+	 * Number of free frames
+	 * @return
+	 */
+	public int getFreeCount() {
+		return count;
+	}
+
+	/**
+	 * Number of free frames that are clean
+	 * @return
+	 */
+	public int getCleanCount() {
+		return cleanCount;
+	}
+
+	/**
+	 * Total number of frames
+	 * @return
+	 */
+	public int getFrameCount() {
+		return position.length;
+	}
+
+	/**
+	 * Allocations served from the clean pool
+	 * @return
+	 */
+	public long getCleanHits() {
+		return cleanHits;
+	}
+
+	/**
+	 * Allocations that had to clear a dirty frame on demand
+	 * @return
+	 */
+	public long getDirtyAllocations() {
+		return dirtyAllocations;
+	}
+
+	/**
+	 * Frames cleaned while they were free
+	 * @return
+	 */
+	public long getCleaned() {
+		return cleaned;
+	}
+
+	/**
+	 * Pull the frame at the given slot out of the stack, keeping the 
+	 * clean frames ahead of the dirty ones
+	 * @param index
+	 */
+	private void remove(int index) {
+		int frame = free[index];
+		if (index < cleanCount) {
+			cleanCount--;
+			swap(index, cleanCount);
+			index = cleanCount;
+		}
+		count--;
+		swap(index, count);
+		position[frame] = ALLOCATED;
+	}
+
+	/**
+	 * Exchange two slots of the free stack
+	 * @param i
+	 * @param j
+	 */
+	private void swap(int i, int j) {
+		int a = free[i];
+		int b = free[j];
+		free[i] = b;
+		free[j] = a;
+		position[b] = i;
+		position[a] = j;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[ ");
+		for (int i = 0; i < position.length; i++) {
+			if (isAllocated(i)) {
+				sb.append(i).append(' ');
+			}
+		}
+		return sb.append(']').toString();
+	}
+}
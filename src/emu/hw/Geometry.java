@@ -0,0 +1,133 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.hw;
+
+/**
+ * Shape of the emulated machine: how wide a word is, how many words make
+ * up a frame, how many frames of physical memory there are and how many
+ * words a process can address.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class Geometry {
+	/**
+	 * The phase 2 machine: 4 character words, 10 word frames, 30 frames
+	 * and 100 addressable words
+	 */
+	public static final Geometry DEFAULT = new Geometry(4, 10, 30, 100);
+	/**
+	 * Characters in a word
+	 */
+	private final int wordLength;
+	/**
+	 * Words in a frame (and a page)
+	 */
+	private final int wordsPerFrame;
+	/**
+	 * Frames of physical memory
+	 */
+	private final int frames;
+	/**
+	 * Words in a process's logical address space
+	 */
+	private final int addressSpace;
+
+	/**
+	 * Constructor
+	 * @param wordLength Characters in a word, 3 to 8. The operand takes all but
+	 * the first two characters.
+	 * @param wordsPerFrame Words in a frame
+	 * @param frames Frames of physical memory
+	 * @param addressSpace Words a process can address. The operand must be
+	 * able to name every word and the page table must fit in one frame.
+	 */
+	public Geometry(int wordLength, int wordsPerFrame, int frames, int addressSpace) {
+		if (wordLength < 3 || wordLength > Word.MAX_LENGTH) {
+			throw new IllegalArgumentException("word length must be 3 to "+Word.MAX_LENGTH+": "+wordLength);
+		}
+		if (wordsPerFrame < 1 || frames < 1 || addressSpace < 1) {
+			throw new IllegalArgumentException("geometry must be positive: "+wordsPerFrame+"x"+frames+", "+addressSpace);
+		}
+		if ((long) frames * wordsPerFrame > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(frames+" frames of "+wordsPerFrame+" words can not be addressed");
+		}
+		if (addressSpace > maxOperand(wordLength) + 1) {
+			throw new IllegalArgumentException(addressSpace+" words can not be addressed by "+(wordLength-2)+" digit operands");
+		}
+		if (divideRoundingUp(addressSpace, wordsPerFrame) > wordsPerFrame) {
+			throw new IllegalArgumentException("page table for "+addressSpace+" words does not fit in a "+wordsPerFrame+" word frame");
+		}
+		this.wordLength = wordLength;
+		this.wordsPerFrame = wordsPerFrame;
+		this.frames = frames;
+		this.addressSpace = addressSpace;
+	}
+
+	/**
+	 * Largest operand that fits in a word of the given length
+	 * @param wordLength
+	 * @return
+	 */
+	private static int maxOperand(int wordLength) {
+		int max = 1;
+		for (int i = 2; i < wordLength; i++) {
+			max *= 10;
+		}
+		return max - 1;
+	}
+
+	private static int divideRoundingUp(int a, int b) {
+		return (a + b - 1) / b;
+	}
+
+	public int getWordLength() {
+		return wordLength;
+	}
+
+	public int getWordsPerFrame() {
+		return wordsPerFrame;
+	}
+
+	public int getFrames() {
+		return frames;
+	}
+
+	public int getAddressSpace() {
+		return addressSpace;
+	}
+
+	/**
+	 * Words of physical memory
+	 * @return
+	 */
+	public int getMemorySize() {
+		return frames * wordsPerFrame;
+	}
+
+	/**
+	 * Characters in a frame
+	 * @return
+	 */
+	public int getBlockSize() {
+		return wordLength * wordsPerFrame;
+	}
+
+	/**
+	 * Pages in a process's address space, which is also the number of
+	 * page table entries
+	 * @return
+	 */
+	public int getPages() {
+		return divideRoundingUp(addressSpace, wordsPerFrame);
+	}
+
+	public String toString() {
+		return "wordLength="+wordLength+",words/frame="+wordsPerFrame+",frames="+frames+",addressSpace="+addressSpace;
+	}
+}
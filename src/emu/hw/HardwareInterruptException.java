@@ -1,31 +1,33 @@
-/**
- * Group 5
- * EmuOS: An Emulated Operating System
- * 
- * MSCS 515
- */
-package emu.hw;
-
-import java.util.logging.Logger;
-
-/**
- * Hardware Interrupt Handler for emuos
- * @author b.j.drew@gmail.com
- * @author willaim.mosley@gmail.com
- * @author claytonannam@gmail.com
- *
- */
-@SuppressWarnings("serial")
-public class HardwareInterruptException extends Exception {
-	
-	/**
-	 * For tracing
-	 */
-	Logger trace = Logger.getLogger("emuos");
-	/**
-	 * A copy of the interupt
-	 */
-	public HardwareInterruptException() {
-
-	}
-}
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ * 
+ * MSCS 515
+ */
+package emu.hw;
+
+import java.util.logging.Logger;
+
+/**
+ * Hardware Interrupt Handler for emuos
+ * Interrupts are reported through the CPU interrupt registers, this is 
+ * only thrown when the emulated hardware itself is in a bad state.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+@SuppressWarnings("serial")
+public class HardwareInterruptException extends Exception {
+	
+	/**
+	 * For tracing
+	 */
+	Logger trace = Logger.getLogger("emuos");
+	/**
+	 * A copy of the interupt
+	 */
+	public HardwareInterruptException() {
+
+	}
+}
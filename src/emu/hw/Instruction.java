@@ -0,0 +1,192 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.hw;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A predecoded memory word. The opcode and operand are parsed once
+ * and reused every time the word is fetched.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class Instruction {
+	/**
+	 * For tracing
+	 */
+	static Logger trace = Logger.getLogger("emuos");
+
+	/**
+	 * Decoded operation codes
+	 */
+	public enum Opcode {
+		LOAD,
+		STORE,
+		COMPARE,
+		BRANCH,
+		GET,
+		PUT,
+		HALT,
+		UNKNOWN;
+	}
+
+	/**
+	 * Opcodes as the first two characters of a packed word
+	 */
+	private static final int LOAD    = (int) Word.pack(CPU.LOAD, 2);
+	private static final int STORE   = (int) Word.pack(CPU.STORE, 2);
+	private static final int COMPARE = (int) Word.pack(CPU.COMPARE, 2);
+	private static final int BRANCH  = (int) Word.pack(CPU.BRANCH, 2);
+	private static final int GET     = (int) Word.pack(CPU.GET, 2);
+	private static final int PUT     = (int) Word.pack(CPU.PUT, 2);
+
+	/**
+	 * Operand of an instruction whose operand is not a valid address
+	 */
+	public static final int INVALID_OPERAND = -1;
+
+	/**
+	 * The operation
+	 */
+	private final Opcode opcode;
+	/**
+	 * The parsed operand, or INVALID_OPERAND if it is not a valid address
+	 */
+	private final int operand;
+	/**
+	 * The packed word as read from memory
+	 */
+	private final long word;
+	/**
+	 * Characters in the word
+	 */
+	private final int length;
+
+	/**
+	 * Constructor
+	 * @param opcode
+	 * @param operand
+	 * @param word
+	 * @param length
+	 */
+	private Instruction(Opcode opcode, int operand, long word, int length) {
+		this.opcode = opcode;
+		this.operand = operand;
+		this.word = word;
+		this.length = length;
+	}
+
+	/**
+	 * Decodes a packed memory word.
+	 * @param word
+	 * @param geometry
+	 * @return
+	 */
+	public static Instruction decode(long word, Geometry geometry) {
+		int length = geometry.getWordLength();
+		return new Instruction(decodeOpcode(word, length), 
+				decodeOperand(word, length, geometry.getAddressSpace()), word, length);
+	}
+
+	/**
+	 * Decodes a memory word.
+	 * @param word
+	 * @param geometry
+	 * @return
+	 */
+	public static Instruction decode(String word, Geometry geometry) {
+		return decode(Word.pack(word, geometry.getWordLength()), geometry);
+	}
+
+	/**
+	 * Determine the operation of the given word
+	 * @param word
+	 * @param length
+	 * @return
+	 */
+	private static Opcode decodeOpcode(long word, int length) {
+		int op = (int) (word >>> ((length - 2) * 8));
+		if (op == LOAD) {
+			return Opcode.LOAD;
+		} else if (op == STORE) {
+			return Opcode.STORE;
+		} else if (op == COMPARE) {
+			return Opcode.COMPARE;
+		} else if (op == BRANCH) {
+			return Opcode.BRANCH;
+		} else if (op == GET) {
+			return Opcode.GET;
+		} else if (op == PUT) {
+			return Opcode.PUT;
+		} else if (word == Word.pack(CPU.HALT, length)) {
+			return Opcode.HALT;
+		}
+		return Opcode.UNKNOWN;
+	}
+
+	/**
+	 * Parse the operand characters of the given word the same way
+	 * Integer.parseInt() would
+	 * @param word
+	 * @param length
+	 * @param addressSpace Operands must be below this
+	 * @return
+	 */
+	private static int decodeOperand(long word, int length, int addressSpace) {
+		int retval = 0;
+		int i = 2;
+		char sign = Word.charAt(word, i, length);
+		if (sign == '+' || sign == '-') {
+			i++;
+		}
+		if (i == length) {
+			retval = -1;
+		}
+		for (; i < length && retval >= 0; i++) {
+			char c = Word.charAt(word, i, length);
+			if (isDigit(c)) {
+				retval = retval * 10 + (c - '0');
+			} else {
+				retval = -1;
+			}
+		}
+		if (retval < 0) {
+			if (trace.isLoggable(Level.FINE))
+				trace.fine("invalid operand format:"+Word.toString(word, length).substring(2));
+		} else if (sign == '-') {
+			retval = -retval;
+		}
+
+		if (retval < 0 || retval >= addressSpace){
+			retval = INVALID_OPERAND;
+		}
+		return retval;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	public Opcode getOpcode() {
+		return opcode;
+	}
+
+	public int getOperand() {
+		return operand;
+	}
+
+	public long getWord() {
+		return word;
+	}
+
+	public String toString() {
+		return Word.toString(word, length);
+	}
+}
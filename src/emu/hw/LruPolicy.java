@@ -0,0 +1,56 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.hw;
+
+import java.util.Arrays;
+
+/**
+ * Evicts the page that has gone the longest without being referenced
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class LruPolicy implements ReplacementPolicy {
+	/**
+	 * When each frame was last referenced, -1 if it holds no pageable page
+	 */
+	private long[] useTime;
+
+	public LruPolicy(int frames) {
+		useTime = new long[frames];
+		Arrays.fill(useTime, -1);
+	}
+
+	public void loaded(int frame, long time) {
+		useTime[frame] = time;
+	}
+
+	public void referenced(int frame, long time) {
+		if (useTime[frame] >= 0) {
+			useTime[frame] = time;
+		}
+	}
+
+	public void removed(int frame) {
+		useTime[frame] = -1;
+	}
+
+	public int selectVictim(long time) {
+		int victim = -1;
+		for (int i = 0; i < useTime.length; i++) {
+			if (useTime[i] >= 0 && (victim < 0 || useTime[i] < useTime[victim])) {
+				victim = i;
+			}
+		}
+		return victim;
+	}
+
+	public String getName() {
+		return "lru";
+	}
+}
@@ -1,10 +1,10 @@
 package emu.hw;
 
-import java.util.Random;
+import java.util.Arrays;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import emu.hw.CPU.Interrupt;
-import emu.util.Utilities;
 
 
 /**
@@ -17,26 +17,251 @@ public class MMU implements MemoryUnit {
 	 */
 	static Logger trace = Logger.getLogger("emuos");
 	
-	int pages = 10;
+	/**
+	 * Returned by address translation when the page is not backed by a frame
+	 * or the address is outside of the address space. PI tells which.
+	 */
+	public static final int PAGE_FAULT = -1;
+	/**
+	 * Page table entry for a page that is not backed by a frame, see PageTableEntry
+	 */
+	public static final int NOT_PRESENT = (int) PageTableEntry.NOT_PRESENT;
+	
+	/**
+	 * Pages in the logical address space
+	 */
+	int pages;
+	/**
+	 * Words in a page
+	 */
+	int pageSize;
 
 	private RAM ram;
 	
+	/**
+	 * Translation lookaside buffer, the frame backing each page of the page 
+	 * table at tlbPtr or -1 if the page has not been looked up yet 
+	 */
+	private int[] tlb;
+	/**
+	 * TLB entries for copy on write pages, writes to them must go 
+	 * through the page table
+	 */
+	private boolean[] tlbReadOnly;
+	/**
+	 * The page table the TLB entries belong to
+	 */
+	private int tlbPtr;
+	/**
+	 * Translations answered by the TLB
+	 */
+	private long tlbHits;
+	/**
+	 * Translations that had to read the page table
+	 */
+	private long tlbMisses;
+	/**
+	 * Demand paging, null when every page must stay resident
+	 */
+	private Pager pager;
+	/**
+	 * Holds one page while it moves to or from swap or is copied on a write
+	 */
+	private long[] pageBuffer;
+	/**
+	 * Logical address of the last page fault
+	 */
+	private int faultAddr;
+	/**
+	 * Resolve demand zero faults on writes here rather than in the kernel
+	 */
+	private boolean demandZero;
+	/**
+	 * Demand zero faults resolved here
+	 */
+	private long demandZeroFaults;
+	/**
+	 * Page faults raised
+	 */
+	private long pageFaults;
+	/**
+	 * Pages allocated ahead of time by prepage()
+	 */
+	private long prepaged;
+	/**
+	 * Prepaged pages that were written
+	 */
+	private long prepagedUsed;
+	/**
+	 * Map identical program pages to one frame, copied when written
+	 */
+	private boolean sharing;
+	/**
+	 * Shared pages that were copied on a write
+	 */
+	private long copiesOnWrite;
+	/**
+	 * CPU holding the page table registers of the running process
+	 */
+	private CPU cpu;
+	
 	public MMU(int size, int wordLength, int wordsInBlock) {
-		ram = new RAM(size, wordLength, wordsInBlock);
+		this(new RAM(size, wordLength, wordsInBlock));
+	}
+	
+	/**
+	 * MMU in front of a new physical memory of the given shape
+	 * @param geometry
+	 */
+	public MMU(Geometry geometry) {
+		this(new RAM(geometry));
+	}
+	
+	/**
+	 * MMU in front of the given physical memory
+	 * @param ram
+	 */
+	public MMU(RAM ram) {
+		this.ram = ram;
+		pages = ram.getGeometry().getPages();
+		pageSize = ram.getGeometry().getWordsPerFrame();
+		tlb = new int[pages];
+		tlbReadOnly = new boolean[pages];
+		pageBuffer = new long[pageSize];
+		flushTlb();
+	}
+	
+	/**
+	 * Attach the MMU to the CPU whose page table registers it translates with
+	 * @param cpu
+	 */
+	void setCpu(CPU cpu) {
+		this.cpu = cpu;
+	}
+	
+	/**
+	 * Invalidate every TLB entry
+	 */
+	public void flushTlb() {
+		Arrays.fill(tlb, -1);
+		tlbPtr = -1;
+	}
+	
+	/**
+	 * Turn on demand paging. Pages are evicted to swap when memory is full.
+	 * @param pager
+	 */
+	public void setPager(Pager pager) {
+		this.pager = pager;
+	}
+	
+	public Pager getPager() {
+		return pager;
+	}
+	
+	/**
+	 * Let writes to a page that was never allocated, as done by GD and SR,
+	 * allocate a blank frame on the spot instead of raising a page fault
+	 * for the kernel to handle. Evicted pages still fault.
+	 * @param demandZero
+	 */
+	public void setDemandZero(boolean demandZero) {
+		this.demandZero = demandZero;
+	}
+	
+	/**
+	 * Number of demand zero faults resolved without a page fault
+	 * @return
+	 */
+	public long getDemandZeroFaults() {
+		return demandZeroFaults;
+	}
+	
+	/**
+	 * Share frames between identical program pages. Shared pages are copied
+	 * when they are written and are never evicted.
+	 * @param sharing
+	 */
+	public void setSharing(boolean sharing) {
+		this.sharing = sharing;
+	}
+	
+	/**
+	 * Number of shared pages copied on a write
+	 * @return
+	 */
+	public long getCopiesOnWrite() {
+		return copiesOnWrite;
+	}
+	
+	/**
+	 * Number of program pages mapped to a frame that already held them
+	 * @return
+	 */
+	public long getSharedHits() {
+		return ram.getSharedHits();
+	}
+	
+	/**
+	 * Number of pages allocated ahead of time
+	 * @return
+	 */
+	public long getPageFaults() {
+		return pageFaults;
+	}
+	
+	/**
+	 * Number of pages allocated ahead of time
+	 * @return
+	 */
+	public long getPrepaged() {
+		return prepaged;
+	}
+	
+	/**
+	 * Number of prepaged pages the program went on to write
+	 * @return
+	 */
+	public long getPrepagedUsed() {
+		return prepagedUsed;
+	}
+	
+	/**
+	 * Logical address of the last page fault
+	 * @return
+	 */
+	public int getFaultAddr() {
+		return faultAddr;
+	}
+	
+	public Geometry getGeometry() {
+		return ram.getGeometry();
+	}
+	
+	public long getTlbHits() {
+		return tlbHits;
+	}
+	
+	public long getTlbMisses() {
+		return tlbMisses;
 	}
 	
 	/* 
-	 * Writes a string of data to the given logical address
+	 * Writes a string of data to the given logical address.
+	 * On a page fault nothing is written and PI is set.
 	 * @param logicalAddr
 	 * @param data
 	 */
 	public void write(int logicalAddr,String data) throws HardwareInterruptException {
 		trace.finer("-->");
 		trace.finest("Logical addr to write page:"+logicalAddr);
-		int realAddr=translateAddr(logicalAddr);
-		trace.finest("Real frame to write to:"+realAddr/10);
-		ram.write(realAddr/10, data);
-		//trace.finer(ram.readFrame(realAddr/10));
+		int realAddr=translateAddr(logicalAddr, true);
+		if (realAddr == PAGE_FAULT) {
+			trace.finer("<--");
+			return;
+		}
+		trace.finest("Real frame to write to:"+realAddr/pageSize);
+		ram.write(realAddr/pageSize, data);
 		trace.finer("<--");
 	}
 	
@@ -47,41 +272,103 @@ public class MMU implements MemoryUnit {
 	}
 
 	/*
-	 * Reads a page from the given logical address
+	 * Reads a page from the given logical address, null on a page fault
 	 * @param logicalAddr
 	 * @returns String
 	 */
 	public String read(int logicalAddr) throws HardwareInterruptException {
 		trace.finer("-->");
 		trace.finest("Logical page to read: "+logicalAddr);
-		int realAddr=translateAddr(logicalAddr);
-		trace.finest("Real frame to read from: "+realAddr/10);
+		int realAddr=translateAddr(logicalAddr, false);
+		if (realAddr == PAGE_FAULT) {
+			trace.finer("<--");
+			return null;
+		}
+		trace.finest("Real frame to read from: "+realAddr/pageSize);
 		trace.finer("<--");
-		return ram.read(realAddr/10);
+		return ram.read(realAddr/pageSize);
 	}
 
 	/*
-	 * Reads a word from the given logical address
+	 * Reads a word from the given logical address, null on a page fault
 	 * @param logicalAddr
 	 * @returns String
 	 */
 	public String load(int logicalAddr) throws HardwareInterruptException {
 		trace.finer("-->");
 		trace.finest("Logical address to load from: "+logicalAddr);
-		int realAddr = translateAddr(logicalAddr);
+		int realAddr = translateAddr(logicalAddr, false);
+		if (realAddr == PAGE_FAULT) {
+			trace.finer("<--");
+			return null;
+		}
 		trace.finest("Real address to load from: "+realAddr);
 		trace.finer("<--");
 		return ram.load(realAddr);
 	}
 	
 	/**
-	 * Stores the given word at the given logical address
+	 * Loads a packed word from the given logical address.
+	 * On a page fault PI is set and the return value is meaningless.
+	 * @param logicalAddr
+	 * @return
+	 */
+	public long loadWord(int logicalAddr) throws HardwareInterruptException {
+		int realAddr = translateAddr(logicalAddr, false);
+		if (realAddr == PAGE_FAULT) {
+			return 0;
+		}
+		return ram.loadWord(realAddr);
+	}
+	
+	/**
+	 * Stores a packed word at the given logical address.
+	 * On a page fault nothing is stored and PI is set.
+	 * @param logicalAddr
+	 * @param word
+	 */
+	public void storeWord(int logicalAddr, long word) throws HardwareInterruptException {
+		int realAddr = translateAddr(logicalAddr, true);
+		if (realAddr == PAGE_FAULT) {
+			return;
+		}
+		ram.storeWord(realAddr, word);
+	}
+	
+	/**
+	 * Fetches the predecoded instruction at the given logical address, null on a page fault
+	 * @param logicalAddr
+	 * @return
+	 */
+	public Instruction fetch(int logicalAddr) throws HardwareInterruptException {
+		int realAddr = translateAddr(logicalAddr, false);
+		if (realAddr == PAGE_FAULT) {
+			return null;
+		}
+		return ram.fetch(realAddr);
+	}
+	
+	/**
+	 * Predecodes the words of the given frame
+	 * @param frame
+	 */
+	public void predecodeFrame(int frame) throws HardwareInterruptException {
+		ram.predecode(frame);
+	}
+	
+	/**
+	 * Stores the given word at the given logical address.
+	 * On a page fault nothing is stored and PI is set.
 	 * @param logicalAddr
 	 * @param data
 	 */
 	public void store(int logicalAddr, String data) throws HardwareInterruptException {
 		trace.finer("-->");
-		int realAddr = translateAddr(logicalAddr);
+		int realAddr = translateAddr(logicalAddr, true);
+		if (realAddr == PAGE_FAULT) {
+			trace.finer("<--");
+			return;
+		}
 		trace.finest("Real address to store to: "+realAddr);
 		trace.finer("<--");
 		ram.store(realAddr, data);
@@ -92,59 +379,283 @@ public class MMU implements MemoryUnit {
 	}
 
 	/**
-	 * Translates a logical address (page*10+displacement) and returns a real address (frame*10+displacement)
+	 * Translates a logical address (page*pageSize+displacement) and returns a real address (frame*pageSize+displacement)
+	 * If the page is not backed by a frame PI is set to PAGE_FAULT and PAGE_FAULT is returned.
+	 * If the address is outside of the address space PI is set to OPERAND_ERROR.
 	 * @param logicalAddr
+	 * @param write The access is a write, which may allocate a demand zero page
 	 * @return
 	 */
-	private int translateAddr(int logicalAddr) throws HardwareInterruptException{
+	private int translateAddr(int logicalAddr, boolean write) throws HardwareInterruptException{
 		int ptr;
-		int logicalPageNum = logicalAddr/10;
-		int displacement = logicalAddr%10;
-		Integer frameNum;
-		String pageTable;
+		int logicalPageNum = logicalAddr/pageSize;
+		int displacement = logicalAddr%pageSize;
+		int frameNum;
 		
 		trace.finer("-->");
 		//Get PTR from CPU
-		ptr = CPU.getInstance().getPtr();
-		trace.finest("LogicalAddr: "+logicalAddr+"; Logical Page@: "+logicalPageNum+"; Displacement: "+displacement);
+		ptr = cpu.getPtr();
+		if (trace.isLoggable(Level.FINEST))
+			trace.finest("LogicalAddr: "+logicalAddr+"; Logical Page@: "+logicalPageNum+"; Displacement: "+displacement);
 		
-		//Determine page fault 
-		pageTable = ram.read(ptr);
-		String pageTableEntry = pageTable.substring(logicalPageNum*4,(logicalPageNum+1)*4);
-		trace.finest("Page Table:"+pageTable+"; Page Table Entry: "+pageTableEntry);
-		
-		try {
-			frameNum = new Integer(pageTableEntry);
+		//The TLB only holds entries for one page table
+		if (ptr != tlbPtr) {
+			flushTlb();
+			tlbPtr = ptr;
 		}
-		catch (NumberFormatException e) {
-			//Does page being referenced have a frame allocated for it?
-			trace.warning("page fault on addr "+logicalAddr);
-			CPU.getInstance().setPi(Interrupt.PAGE_FAULT);
+		
+		if (logicalAddr < 0 || logicalPageNum >= pages) {
+			trace.warning("address "+logicalAddr+" is outside of the address space");
+			cpu.setPi(Interrupt.OPERAND_ERROR);
 			trace.finer("<--");
-			throw new HardwareInterruptException();
+			return PAGE_FAULT;
 		}
 		
-		int realAddr = frameNum*10+displacement;
-		trace.info("logical->real : "+logicalAddr+"->"+realAddr);
+		if (tlb[logicalPageNum] >= 0 && !(write && tlbReadOnly[logicalPageNum])) {
+			tlbHits++;
+			frameNum = tlb[logicalPageNum];
+		} else {
+			tlbMisses++;
+			long entry = readPageTableEntry(ptr, logicalPageNum);
+			if (write && PageTableEntry.hasFlag(entry, PageTableEntry.COPY_ON_WRITE)) {
+				entry = copyOnWrite(ptr, logicalPageNum, entry);
+				tlbPtr = ptr;
+			} else if (write && PageTableEntry.hasFlag(entry, PageTableEntry.PREPAGED)) {
+				//First write to a prepaged page makes it readable
+				entry &= ~PageTableEntry.PREPAGED;
+				writePageTableEntry(ptr, logicalPageNum, entry);
+				prepagedUsed++;
+			} else if (write && demandZero && entry == NOT_PRESENT) {
+				entry = allocatePage(logicalPageNum);
+				demandZeroFaults++;
+				tlbPtr = ptr;
+				trace.info("demand zero page "+logicalPageNum+" on addr "+logicalAddr);
+			}
+			if (!PageTableEntry.isPresent(entry) || PageTableEntry.hasFlag(entry, PageTableEntry.PREPAGED)) {
+				//Does page being referenced have a frame allocated for it?
+				trace.warning("page fault on addr "+logicalAddr);
+				pageFaults++;
+				faultAddr = logicalAddr;
+				cpu.setPi(Interrupt.PAGE_FAULT);
+				trace.finer("<--");
+				return PAGE_FAULT;
+			}
+			frameNum = PageTableEntry.getFrame(entry);
+			tlb[logicalPageNum] = frameNum;
+			tlbReadOnly[logicalPageNum] = PageTableEntry.hasFlag(entry, PageTableEntry.COPY_ON_WRITE);
+		}
+		if (pager != null) {
+			pager.referenced(frameNum);
+		}
+		
+		int realAddr = frameNum*pageSize+displacement;
+		if (trace.isLoggable(Level.INFO))
+			trace.info("logical->real : "+logicalAddr+"->"+realAddr);
 		
 		trace.finer("<--");
 		return realAddr;
 		
 	}
+	
+	/**
+	 * Look up a page in the page table held in the given frame
+	 * @param ptr
+	 * @param logicalPageNum
+	 * @return The raw entry, see PageTableEntry
+	 * @throws HardwareInterruptException
+	 */
+	private long readPageTableEntry(int ptr, int logicalPageNum) throws HardwareInterruptException {
+		long entry = ram.loadWord(ptr*pageSize+logicalPageNum);
+		if (trace.isLoggable(Level.FINEST))
+			trace.finest("Page Table:"+ram.read(ptr)+"; Page Table Entry: "+entry);
+		return entry;
+	}
+	
+	/**
+	 * Release whatever backs a page table entry, its frame or its swap slot
+	 * @param entry
+	 */
+	private void releaseEntry(long entry) {
+		if (PageTableEntry.hasFlag(entry, PageTableEntry.COPY_ON_WRITE)) {
+			ram.releaseFrame(PageTableEntry.getFrame(entry));
+		} else if (PageTableEntry.isPresent(entry)) {
+			int frameNum = PageTableEntry.getFrame(entry);
+			ram.markFree(frameNum);
+			if (pager != null) {
+				pager.removed(frameNum);
+			}
+		} else if (PageTableEntry.getSwapSlot(entry) >= 0) {
+			pager.getSwap().free(PageTableEntry.getSwapSlot(entry));
+		}
+	}
+	
+	/**
+	 * Give the writer of a shared page its own copy. The last page table 
+	 * referring to the frame just takes it over.
+	 * @param ptr
+	 * @param logicalPageNum
+	 * @param entry The shared entry
+	 * @return The new entry
+	 * @throws HardwareInterruptException
+	 */
+	private long copyOnWrite(int ptr, int logicalPageNum, long entry) throws HardwareInterruptException {
+		int frame = PageTableEntry.getFrame(entry);
+		int copy = frame;
+		if (ram.getRefs(frame) > 1) {
+			copy = allocateFrame();
+			ram.readWords(frame, pageBuffer);
+			ram.writeWords(copy, pageBuffer);
+			ram.releaseFrame(frame);
+			copiesOnWrite++;
+			trace.info("copied shared frame "+frame+" to "+copy+" for page "+logicalPageNum);
+		} else {
+			ram.unindexFrame(frame);
+		}
+		writePageTableEntry(ptr, logicalPageNum, copy);
+		if (pager != null) {
+			pager.loaded(copy, ptr, logicalPageNum);
+		}
+		return copy;
+	}
+	
+	/**
+	 * Place a program page. With sharing on, a frame already holding the 
+	 * same page is mapped copy on write instead of filling a new one.
+	 * @param pageNumber
+	 * @param data
+	 * @return The frame holding the page
+	 * @throws HardwareInterruptException
+	 */
+	public int loadPage(int pageNumber, String data) throws HardwareInterruptException {
+		int frame = sharing ? ram.shareFrame(data) : -1;
+		if (frame < 0) {
+			frame = allocatePage(pageNumber);
+			ram.write(frame, data);
+			ram.predecode(frame);
+			if (!sharing) {
+				return frame;
+			}
+			ram.indexFrame(frame, data);
+			//Shared frames stay resident
+			if (pager != null) {
+				pager.removed(frame);
+			}
+		}
+		int ptr = cpu.getPtr();
+		long entry = readPageTableEntry(ptr, pageNumber);
+		if (entry != NOT_PRESENT && PageTableEntry.getFrame(entry) != frame) {
+			releaseEntry(entry);
+		}
+		writePageTableEntry(ptr, pageNumber, frame | PageTableEntry.COPY_ON_WRITE);
+		cpu.setPtl(Math.max(cpu.getPtl(), pageNumber+1));
+		flushTlb();
+		trace.info("page->frame : "+pageNumber+"->"+frame+" shared");
+		return frame;
+	}
+	
+	/**
+	 * Indicate whether the given page of the running process was evicted to swap
+	 * @param pageNumber
+	 * @return
+	 */
+	public boolean isSwapped(int pageNumber) {
+		if (pager == null || pageNumber < 0 || pageNumber >= pages) {
+			return false;
+		}
+		try {
+			return PageTableEntry.getSwapSlot(readPageTableEntry(cpu.getPtr(), pageNumber)) >= 0;
+		} catch (HardwareInterruptException e) {
+			trace.severe("Pagetable should be readable and writable");
+			return false;
+		}
+	}
+	
+	/**
+	 * Bring an evicted page of the running process back from swap
+	 * @param pageNumber
+	 * @return The frame now holding the page
+	 */
+	public int swapIn(int pageNumber) {
+		int ptr = cpu.getPtr();
+		int frame = -1;
+		try {
+			int slot = PageTableEntry.getSwapSlot(readPageTableEntry(ptr, pageNumber));
+			frame = allocateFrame();
+			pager.getSwap().read(slot, pageBuffer);
+			ram.writeWords(frame, pageBuffer);
+			pager.getSwap().free(slot);
+			writePageTableEntry(ptr, pageNumber, frame);
+			pager.loaded(frame, ptr, pageNumber);
+			pager.swappedIn();
+		} catch (HardwareInterruptException e) {
+			trace.severe("Pagetable should be readable and writable");
+		}
+		trace.info("swapped in page "+pageNumber+"->"+frame);
+		return frame;
+	}
+	
+	/**
+	 * Move the page chosen by the replacement policy out to swap
+	 * @return The frame that was freed or -1 if no page could be evicted
+	 * or swap is full
+	 * @throws HardwareInterruptException
+	 */
+	private int evictPage() throws HardwareInterruptException {
+		int frame = pager.selectVictim();
+		if (frame < 0) {
+			return -1;
+		}
+		int ptr = pager.getOwnerPtr(frame);
+		int pageNumber = pager.getOwnerPage(frame);
+		if (PageTableEntry.hasFlag(readPageTableEntry(ptr, pageNumber), PageTableEntry.PREPAGED)) {
+			//Never written, so there is nothing to keep
+			writePageTableEntry(ptr, pageNumber, NOT_PRESENT);
+			trace.info("dropped prepaged page "+pageNumber+" of page table "+ptr+" from frame "+frame);
+		} else {
+			int slot = pager.getSwap().allocate();
+			if (slot < 0) {
+				//The victim stays where it is
+				trace.warning("swap space full");
+				return -1;
+			}
+			ram.readWords(frame, pageBuffer);
+			pager.getSwap().write(slot, pageBuffer);
+			writePageTableEntry(ptr, pageNumber, PageTableEntry.swapped(slot));
+			trace.info("swapped out page "+pageNumber+" of page table "+ptr+" from frame "+frame);
+		}
+		pager.evicted(frame);
+		ram.markFree(frame);
+		flushTlb();
+		return frame;
+	}
+	
+	/**
+	 * Update a page in the page table held in the given frame
+	 * @param ptr
+	 * @param logicalPageNum
+	 * @param entry See PageTableEntry
+	 * @throws HardwareInterruptException
+	 */
+	private void writePageTableEntry(int ptr, int logicalPageNum, long entry) throws HardwareInterruptException {
+		ram.storeWord(ptr*pageSize+logicalPageNum, entry);
+	}
 
 	/**
 	 * Initialize the page table 
 	 * @return The physical frame where the page table will reside.
 	 */
 	public int initPageTable() {
+		flushTlb();
 		int frame = allocateFrame();
-		String spaces = Utilities.padStringToLength(new String("")," ",40,false);
-		// AMC: parse as integer fails for spaces. This indicates a page fault.  
 		try {
-		ram.write(frame,spaces);
+			for (int i=0; i<ram.wordsInBlock; i++) {
+				writePageTableEntry(frame, i, NOT_PRESENT);
+			}
 		} catch (HardwareInterruptException e) {
 			trace.severe("Error in init page table");
 		}
+		//Entries are binary, memory dumps show them as text
+		ram.markPageTable(frame, true);
 		return frame; 
 	}
 	
@@ -153,26 +664,24 @@ public class MMU implements MemoryUnit {
 	 * when a process is terminating
 	 */
 	public void freePageTable() {
+		flushTlb();
 		//Get the page table frame # from PTR
-		int ptr = CPU.getInstance().getPtr();
+		int ptr = cpu.getPtr();
 		try {
-		//Read the current page table
-		String pageTable = ram.read(ptr);
-		//Free the frames referenced in the page table
+		//Free the frames and swap slots referenced in the page table
 		for (int i=0; i<ram.wordsInBlock; i++) {
-			try {
-				String pageTableEntry = pageTable.substring(i*4,(i+1)*4);
-				int frameNum = new Integer(pageTableEntry);
-				ram.markFree(frameNum);
+			long entry = readPageTableEntry(ptr, i);
+			if (entry != NOT_PRESENT) {
+				releaseEntry(entry);
 			}
-			catch (NumberFormatException e) {
+			else {
 				trace.finest(i + " wasn't backed by a frame");
 			}
 		}
 		//Free the frame backing the page table
 		ram.markFree(ptr);
 		//Set the PTL to zero
-		CPU.getInstance().setPtl(0);
+		cpu.setPtl(0);
 		}
 		catch (HardwareInterruptException e) {
 			trace.severe("Pagetable should be readable and writable");
@@ -180,63 +689,129 @@ public class MMU implements MemoryUnit {
 	}
 	
 	/**
-	 * Find a new frame in memory to use, return the frame
+	 * Find a new frame in memory to use, return the frame. The frame is 
+	 * blank, either from the clean pool or cleared on demand. When memory
+	 * is full and paging is on a page is evicted to make room.
 	 * @return The frame number.
+	 * @throws MemoryFullException if no frame is free and no page could be evicted
 	 */
 	public int allocateFrame() {
-		Random generator = new Random();
-		int frameNum = 0;
-		//We keep track of which frames are free in the ArrayList freeFrames
-		//So to randomly select one of them, use the generator to grab a random int <= the size of the List
-		//and select frameNum to be the int located at that randomly selected index
-		//so we don't have to check to see if it's allocated and keep trying again. When there is only one free frame
-		//that could take a long time and this is very fast.  
-		frameNum = ram.getFreeFrames().get(generator.nextInt(ram.getFreeFrames().size()));
-		trace.info("Frame allocated: "+frameNum);
-		//Clear any residual data from the frame
-		String spaces = Utilities.padStringToLength(new String("")," ",40,false);
-		try {
-		ram.write(frameNum,spaces);
-		} catch (HardwareInterruptException e) {
-			trace.severe("Error in allocating a new frame");
+		int frameNum = ram.allocateFrame();
+		if (frameNum < 0 && ram.reclaimFrame() >= 0) {
+			frameNum = ram.allocateFrame();
 		}
-		//Mark the frame we selected as allocated
-		ram.markAllocated(frameNum);
-		
+		if (frameNum < 0 && pager != null) {
+			try {
+				if (evictPage() >= 0) {
+					frameNum = ram.allocateFrame();
+				}
+			} catch (HardwareInterruptException e) {
+				trace.severe("Error evicting a page");
+			}
+		}
+		if (frameNum < 0) {
+			throw new MemoryFullException(pager == null ? "no free frames" : "no free frames and no page could be evicted");
+		}
+		trace.info("Frame allocated: "+frameNum);
 		return frameNum;
 	}
 	
+	/**
+	 * Clear free frames while the machine is idle
+	 * @param max Most frames to clear
+	 * @return The number of frames cleared
+	 */
+	public int cleanFreeFrames(int max) {
+		return ram.cleanFreeFrames(max);
+	}
+	
+	public FrameAllocator getFrameAllocator() {
+		return ram.getFrameAllocator();
+	}
+	
 	@Override
 	public void clear() {
+		flushTlb();
 		ram.clear();
 	}
 	
+	/**
+	 * Allocate the pages the running process's program will write with GD 
+	 * and SR, as far as free frames allow. The program is scanned for 
+	 * their operands. Prepaged pages fault on a read until they are written, 
+	 * the same as pages that were never allocated.
+	 * @param programPages Number of pages holding the program
+	 * @return The number of pages allocated
+	 */
+	public int prepage(int programPages) {
+		int ptr = cpu.getPtr();
+		boolean[] wanted = new boolean[pages];
+		int count = 0;
+		try {
+			for (int page = 0; page < programPages; page++) {
+				long entry = readPageTableEntry(ptr, page);
+				if (!PageTableEntry.isPresent(entry)) {
+					continue;
+				}
+				int blockAddr = PageTableEntry.getFrame(entry)*pageSize;
+				for (int i = 0; i < pageSize; i++) {
+					Instruction instruction = ram.fetch(blockAddr+i);
+					Instruction.Opcode op = instruction.getOpcode();
+					if ((op == Instruction.Opcode.GET || op == Instruction.Opcode.STORE)
+							&& instruction.getOperand() != Instruction.INVALID_OPERAND) {
+						wanted[instruction.getOperand()/pageSize] = true;
+					}
+				}
+			}
+			for (int page = 0; page < pages; page++) {
+				if (!wanted[page] || readPageTableEntry(ptr, page) != NOT_PRESENT) {
+					continue;
+				}
+				//Only use free frames, prepaging is not worth evicting for
+				if (ram.getFrameAllocator().getFreeCount() == 0) {
+					break;
+				}
+				int frame = allocatePage(page);
+				writePageTableEntry(ptr, page, frame | PageTableEntry.PREPAGED);
+				count++;
+			}
+		} catch (HardwareInterruptException e) {
+			trace.severe("Pagetable should be readable and writable");
+		}
+		prepaged += count;
+		trace.info("prepaged "+count+" pages");
+		return count;
+	}
+	
 	/**
 	 * 
 	 * @param pageNumber
 	 * @return The frame number
 	 */
 	public int allocatePage(int pageNumber) {
+		flushTlb();
 		//Allocate a frame. Frame # returned
 		int frame = allocateFrame();
 		//Update page table entry.
 		//Get the page table frame #
-		int pageTableFrame = CPU.getInstance().getPtr();
+		int pageTableFrame = cpu.getPtr();
 		try {
-		//Read the current page table
-		String pageTable = ram.read(pageTableFrame);
-		//
-		//pad the new entry with leading zeroes
-		String newEntry = Utilities.padStringToLength(new Integer(frame).toString(), "0", 4, true);
-		//stick the new entry in place
-		String updatedPageTable = pageTable.substring(0,pageNumber*4) + newEntry + pageTable.substring((pageNumber+1)*4);
-		trace.fine("PageTable: " +updatedPageTable);
-		ram.write(pageTableFrame,updatedPageTable);
+		//Anything already backing the page is replaced
+		long entry = readPageTableEntry(pageTableFrame, pageNumber);
+		if (entry != NOT_PRESENT) {
+			releaseEntry(entry);
+		}
+		writePageTableEntry(pageTableFrame, pageNumber, frame);
+		if (pager != null) {
+			pager.loaded(frame, pageTableFrame, pageNumber);
+		}
+		if (trace.isLoggable(Level.FINE))
+			trace.fine("PageTable: " +ram.read(pageTableFrame));
 		}
 		catch (HardwareInterruptException e) {
 			trace.severe("Pagetable should be readable and writable");
 		}
-		CPU.getInstance().setPtl(Math.max(CPU.getInstance().getPtl(),pageNumber+1));
+		cpu.setPtl(Math.max(cpu.getPtl(),pageNumber+1));
 		trace.info("page->frame : "+pageNumber+"->"+frame);
 		return frame;
 	}
@@ -0,0 +1,28 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.hw;
+
+/**
+ * No frame could be found for a page: memory is full and no page could be
+ * evicted, either because paging is off or because swap is full. Only the
+ * process the frame was for is affected, the kernel aborts it.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+@SuppressWarnings("serial")
+public class MemoryFullException extends RuntimeException {
+
+	/**
+	 * Constructor
+	 * @param message
+	 */
+	public MemoryFullException(String message) {
+		super(message);
+	}
+}
@@ -15,6 +15,10 @@ public interface MemoryUnit {
 	
 	void write(int addr, String data) throws HardwareInterruptException;
 	
+	long loadWord(int addr) throws HardwareInterruptException;
+	
+	void storeWord(int addr, long word) throws HardwareInterruptException;
+	
 	
 	void clear();
 	
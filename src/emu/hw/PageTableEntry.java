@@ -0,0 +1,86 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.hw;
+
+/**
+ * Encoding of the words of a page table. A present page is its frame
+ * number, possibly with flag bits above the frame. A page that is not
+ * present is NOT_PRESENT and a page evicted to swap is -(slot+2).
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class PageTableEntry {
+	/**
+	 * Entry for a page that is not backed by a frame
+	 */
+	public static final long NOT_PRESENT = -1;
+	/**
+	 * Bits holding the frame number of a present page
+	 */
+	public static final long FRAME_MASK = (1L << 24) - 1;
+	/**
+	 * The frame was allocated ahead of time and the page has not been
+	 * written yet. Reads fault as if the page were not there.
+	 */
+	public static final long PREPAGED = 1L << 29;
+	/**
+	 * The frame is shared with other page tables and must be copied 
+	 * before it is written
+	 */
+	public static final long COPY_ON_WRITE = 1L << 30;
+
+	private PageTableEntry() {
+	}
+
+	/**
+	 * Indicate whether the entry refers to a frame
+	 * @param entry
+	 * @return
+	 */
+	public static boolean isPresent(long entry) {
+		return entry >= 0;
+	}
+
+	/**
+	 * Frame of a present entry
+	 * @param entry
+	 * @return
+	 */
+	public static int getFrame(long entry) {
+		return (int) (entry & FRAME_MASK);
+	}
+
+	/**
+	 * Indicate whether the given flag is set on a present entry
+	 * @param entry
+	 * @param flag
+	 * @return
+	 */
+	public static boolean hasFlag(long entry, long flag) {
+		return entry >= 0 && (entry & flag) != 0;
+	}
+
+	/**
+	 * Entry for a page held in the given swap slot
+	 * @param slot
+	 * @return
+	 */
+	public static long swapped(int slot) {
+		return -(slot + 2L);
+	}
+
+	/**
+	 * Swap slot held in an entry
+	 * @param entry
+	 * @return The slot or -1 if the entry is not swapped out
+	 */
+	public static int getSwapSlot(long entry) {
+		return entry < NOT_PRESENT ? (int) (-entry - 2) : -1;
+	}
+}
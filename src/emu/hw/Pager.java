@@ -0,0 +1,175 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.hw;
+
+import java.util.Arrays;
+
+/**
+ * Bookkeeping for demand paging. Remembers which page table and page each
+ * pageable frame belongs to, feeds references to the replacement policy and
+ * counts faults. Frames holding page tables are never registered and so are
+ * never evicted.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class Pager {
+	/**
+	 * Picks the victims
+	 */
+	private ReplacementPolicy policy;
+	/**
+	 * Where the victims go
+	 */
+	private SwapSpace swap;
+	/**
+	 * Page table holding each frame's page, -1 if the frame is not pageable
+	 */
+	private int[] ownerPtr;
+	/**
+	 * Page held in each frame
+	 */
+	private int[] ownerPage;
+	/**
+	 * Memory references, the policy's clock
+	 */
+	private long references;
+	/**
+	 * Pages read back from swap
+	 */
+	private long swapIns;
+	/**
+	 * Pages written out to swap
+	 */
+	private long evictions;
+
+	/**
+	 * Constructor
+	 * @param policy
+	 * @param swap
+	 * @param frames
+	 */
+	public Pager(ReplacementPolicy policy, SwapSpace swap, int frames) {
+		this.policy = policy;
+		this.swap = swap;
+		ownerPtr = new int[frames];
+		ownerPage = new int[frames];
+		Arrays.fill(ownerPtr, -1);
+	}
+
+	/**
+	 * Create a replacement policy by name
+	 * @param name fifo, lru, clock or wsclock
+	 * @param frames
+	 * @param window Working set window for wsclock, in memory references
+	 * @return
+	 */
+	public static ReplacementPolicy createPolicy(String name, int frames, long window) {
+		if (name.equals("fifo")) {
+			return new FifoPolicy(frames);
+		} else if (name.equals("lru")) {
+			return new LruPolicy(frames);
+		} else if (name.equals("clock")) {
+			return new ClockPolicy(frames);
+		} else if (name.equals("wsclock")) {
+			return new WSClockPolicy(frames, window);
+		}
+		throw new IllegalArgumentException("unknown replacement policy "+name);
+	}
+
+	/**
+	 * A memory reference to the given frame
+	 * @param frame
+	 */
+	public void referenced(int frame) {
+		references++;
+		policy.referenced(frame, references);
+	}
+
+	/**
+	 * A page was placed in the given frame
+	 * @param frame
+	 * @param ptr Page table the page belongs to
+	 * @param page
+	 */
+	public void loaded(int frame, int ptr, int page) {
+		ownerPtr[frame] = ptr;
+		ownerPage[frame] = page;
+		policy.loaded(frame, references);
+	}
+
+	/**
+	 * The page in the given frame was freed
+	 * @param frame
+	 */
+	public void removed(int frame) {
+		ownerPtr[frame] = -1;
+		policy.removed(frame);
+	}
+
+	/**
+	 * Pick the frame to evict
+	 * @return The frame or -1 if no frame is pageable
+	 */
+	public int selectVictim() {
+		return policy.selectVictim(references);
+	}
+
+	/**
+	 * The page in the given frame was written to swap
+	 * @param frame
+	 */
+	public void evicted(int frame) {
+		evictions++;
+		removed(frame);
+	}
+
+	/**
+	 * A page was read back from swap
+	 */
+	public void swappedIn() {
+		swapIns++;
+	}
+
+	public int getOwnerPtr(int frame) {
+		return ownerPtr[frame];
+	}
+
+	public int getOwnerPage(int frame) {
+		return ownerPage[frame];
+	}
+
+	public SwapSpace getSwap() {
+		return swap;
+	}
+
+	public long getReferences() {
+		return references;
+	}
+
+	public long getSwapIns() {
+		return swapIns;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Swap ins per thousand memory references
+	 * @return
+	 */
+	public double getFaultRate() {
+		return references == 0 ? 0 : 1000.0 * swapIns / references;
+	}
+
+	public String toString() {
+		return "pager "+policy.getName()+"   references "+references+"   swap ins "+swapIns
+				+"   evictions "+evictions+"   faults/1000 refs "+String.format("%.2f", getFaultRate());
+	}
+}
@@ -6,8 +6,10 @@
  */
 package emu.hw;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import emu.util.Utilities;
@@ -25,48 +27,310 @@ public class RAM implements MemoryUnit {
 	 */
 	Logger trace = Logger.getLogger("emuos");
 	/**
-	 * blanks to initialize memory to
+	 * Memory array, one packed word per address. Null when a subclass
+	 * keeps the words somewhere else.
 	 */
-	public static final String BLANKS = "    ";
+	long [] memory; 
 	/**
-	 * Memory array
+	 * Predecoded form of each word, null when the word has not been decoded
+	 * since it was last written
 	 */
-	char [][] memory; 
+	Instruction [] decoded;
+	/**
+	 * Frames holding a page table. Their words are binary frame numbers
+	 * and are shown as zero padded text in dumps.
+	 */
+	boolean [] pageTables;
 	
 	/**
 	 * variables containing size of memory
 	 */
+	protected Geometry geometry;
 	protected int size;
 	protected int wordLength;
 	protected int wordsInBlock;
 	protected int blockSize;
 	protected int numPages;
+	/**
+	 * A word of blanks to initialize memory to
+	 */
+	protected long blank;
+	
+	/**
+	 * Tracks the frames which are currently free
+	 */
+	protected FrameAllocator frames; 
 	
 	/**
-	 * Set containing all frames which are currently free
+	 * Frames holding program pages that can be shared, by their contents
+	 */
+	private HashMap<String, Integer> contentIndex = new HashMap<String, Integer>();
+	/**
+	 * Contents each shared frame is indexed under, null if it is not shared
+	 */
+	private String[] contentKeys;
+	/**
+	 * Page table entries referring to each shared frame
+	 */
+	private int[] refs;
+	/**
+	 * Shared frames no page table refers to any more, oldest first. They keep
+	 * their contents for later jobs until the memory is needed. Entries for
+	 * frames that were taken again or reclaimed are skipped.
+	 */
+	private ArrayDeque<Integer> unreferenced = new ArrayDeque<Integer>();
+	/**
+	 * Program pages mapped to a frame that already held them
 	 */
-	protected List<Integer> freeFrames; 
+	private long sharedHits;
+	/**
+	 * Unreferenced shared frames taken back for other uses
+	 */
+	private long reclaimed;
 	
 	/**
 	 * Constructor 
 	 */
 	public RAM(int size, int wordLength, int wordsInBlock) {
-		this.numPages = size/wordsInBlock;
-		trace.info("wordLength="+wordLength+",words/frame="+wordsInBlock+",frames="+numPages);
-		this.size = size;
-		this.wordLength = wordLength;
-		this.wordsInBlock = wordsInBlock;
-		blockSize = wordLength*wordsInBlock;
-		freeFrames = new ArrayList<Integer>(this.numPages);
-		for (int i=0; i<30; i++)
-			freeFrames.add(i);
-		trace.finest("Free frames: " + freeFrames.toString());
-		clear();
-	}
-	
-	public List<Integer> getFreeFrames()
+		this(new Geometry(wordLength, wordsInBlock, size/wordsInBlock, Geometry.DEFAULT.getAddressSpace()));
+	}
+	
+	/**
+	 * Constructor 
+	 * @param geometry
+	 */
+	public RAM(Geometry geometry) {
+		this(geometry, true);
+	}
+	
+	/**
+	 * Constructor for subclasses that store the words themselves. They must 
+	 * override getWord(), putWord() and fillWords() and call clear() once 
+	 * their storage exists.
+	 * @param geometry
+	 * @param onHeap Allocate the memory array
+	 */
+	protected RAM(Geometry geometry, boolean onHeap) {
+		trace.info(geometry.toString());
+		this.geometry = geometry;
+		this.numPages = geometry.getFrames();
+		this.size = geometry.getMemorySize();
+		this.wordLength = geometry.getWordLength();
+		this.wordsInBlock = geometry.getWordsPerFrame();
+		blockSize = geometry.getBlockSize();
+		blank = Word.blank(wordLength);
+		frames = new FrameAllocator(this.numPages);
+		contentKeys = new String[numPages];
+		refs = new int[numPages];
+		decoded = new Instruction[size];
+		pageTables = new boolean[numPages];
+		if (onHeap) {
+			memory = new long[size];
+			clear();
+		}
+	}
+	
+	/**
+	 * Read a packed word from storage
+	 * @param addr
+	 * @return
+	 */
+	protected long getWord(int addr) {
+		return memory[addr];
+	}
+	
+	/**
+	 * Write a packed word to storage
+	 * @param addr
+	 * @param word
+	 */
+	protected void putWord(int addr, long word) {
+		memory[addr] = word;
+	}
+	
+	/**
+	 * Set a range of words of storage
+	 * @param from First address
+	 * @param to Address after the last one
+	 * @param word
+	 */
+	protected void fillWords(int from, int to, long word) {
+		Arrays.fill(memory, from, to, word);
+	}
+	
+	public Geometry getGeometry() {
+		return geometry;
+	}
+	
+	public FrameAllocator getFrameAllocator()
+	{
+		return frames;
+	}
+
+	/**
+	 * Replace the allocator tracking the free frames, before any frame is allocated
+	 * @param frames Allocator for the same number of frames
+	 */
+	public void setFrameAllocator(FrameAllocator frames)
 	{
-		return freeFrames;
+		this.frames = frames;
+	}
+
+	/**
+	 * Take a free frame, clearing it first if it was not already clean
+	 * @return The frame or -1 if every frame is allocated
+	 */
+	public int allocateFrame() {
+		int frame = frames.allocate();
+		if (frame >= 0 && frames.isDirty(frame)) {
+			clearFrame(frame);
+		}
+		return frame;
+	}
+	
+	/**
+	 * Clear free dirty frames so later allocations find them clean
+	 * @param max Most frames to clear
+	 * @return The number of frames cleared
+	 */
+	public int cleanFreeFrames(int max) {
+		int cleaned = 0;
+		int frame;
+		while (cleaned < max && (frame = frames.nextDirty()) >= 0) {
+			clearFrame(frame);
+			cleaned++;
+		}
+		if (cleaned > 0)
+			trace.fine("cleaned "+cleaned+" free frames");
+		return cleaned;
+	}
+	
+	/**
+	 * Copy the packed words of a frame out
+	 * @param frame
+	 * @param words
+	 */
+	public void readWords(int frame, long[] words) {
+		int blockAddr = frame*wordsInBlock;
+		for (int i = 0; i < wordsInBlock; i++) {
+			words[i] = getWord(blockAddr+i);
+		}
+	}
+	
+	/**
+	 * Copy packed words into a frame
+	 * @param frame
+	 * @param words
+	 */
+	public void writeWords(int frame, long[] words) {
+		int blockAddr = frame*wordsInBlock;
+		pageTables[frame] = false;
+		unindexFrame(frame);
+		for (int i = 0; i < wordsInBlock; i++) {
+			putWord(blockAddr+i, words[i]);
+			decoded[blockAddr+i] = null;
+		}
+	}
+	
+	/**
+	 * Find a frame already holding the given program page and take a 
+	 * reference to it
+	 * @param data
+	 * @return The frame or -1 if no frame holds it
+	 */
+	public int shareFrame(String data) {
+		Integer frame = contentIndex.get(data);
+		if (frame == null) {
+			return -1;
+		}
+		refs[frame]++;
+		sharedHits++;
+		trace.fine("sharing frame "+frame+" refs="+refs[frame]);
+		return frame;
+	}
+	
+	/**
+	 * Make the given frame, which holds data, available for sharing. The
+	 * caller holds the first reference.
+	 * @param frame
+	 * @param data
+	 */
+	public void indexFrame(int frame, String data) {
+		contentKeys[frame] = data;
+		refs[frame] = 1;
+		contentIndex.put(data, frame);
+	}
+	
+	/**
+	 * Stop sharing the given frame, it is about to be written
+	 * @param frame
+	 */
+	public void unindexFrame(int frame) {
+		String key = contentKeys[frame];
+		if (key != null) {
+			contentIndex.remove(key);
+			contentKeys[frame] = null;
+			refs[frame] = 0;
+		}
+	}
+	
+	/**
+	 * Number of page table entries referring to a shared frame
+	 * @param frame
+	 * @return
+	 */
+	public int getRefs(int frame) {
+		return refs[frame];
+	}
+	
+	/**
+	 * Drop a reference to a frame. A shared frame is kept with its contents
+	 * once nothing refers to it, any other frame is freed.
+	 * @param frame
+	 */
+	public void releaseFrame(int frame) {
+		if (contentKeys[frame] == null) {
+			markFree(frame);
+		} else if (--refs[frame] == 0) {
+			unreferenced.add(frame);
+		}
+	}
+	
+	/**
+	 * Free the unreferenced shared frame that has gone unused longest
+	 * @return The frame or -1 if there is none
+	 */
+	public int reclaimFrame() {
+		while (!unreferenced.isEmpty()) {
+			int frame = unreferenced.poll();
+			if (contentKeys[frame] != null && refs[frame] == 0) {
+				unindexFrame(frame);
+				markFree(frame);
+				reclaimed++;
+				return frame;
+			}
+		}
+		return -1;
+	}
+	
+	public long getSharedHits() {
+		return sharedHits;
+	}
+	
+	public long getReclaimed() {
+		return reclaimed;
+	}
+	
+	/**
+	 * Blank every word of a frame
+	 * @param frame
+	 */
+	private void clearFrame(int frame) {
+		int blockAddr = frame*wordsInBlock;
+		fillWords(blockAddr, blockAddr+wordsInBlock, blank);
+		Arrays.fill(decoded, blockAddr, blockAddr+wordsInBlock, null);
+		pageTables[frame] = false;
+		frames.markClean(frame);
 	}
 	
 	/**
@@ -76,17 +340,16 @@ public class RAM implements MemoryUnit {
 	 */
 	public void write(int frame, String data) throws HardwareInterruptException {
 		trace.finer("-->");
-		trace.fine("Frame#: "+frame+" Data:"+data);
+		if (trace.isLoggable(Level.FINE))
+			trace.fine("Frame#: "+frame+" Data:"+data);
 		
-		//Ensure the string in 40 chars in length
-		data = Utilities.padStringToLength(data, " ", blockSize, false);
+		int blockAddr = frame*wordsInBlock;
+		pageTables[frame] = false;
+		unindexFrame(frame);
 		
-		int blockAddr = frame*10;
-		
-		for (int i = 0 ; i < 10 ; i++) {
-			String word = data.substring(0,wordLength);
-			store(blockAddr+i, word);
-			data = data.substring(wordLength);
+		//Pack straight from the string, blank padded past its end
+		for (int i = 0 ; i < wordsInBlock ; i++) {
+			storeWord(blockAddr+i, Word.pack(data, i*wordLength, wordLength));
 		}
 
 		//trace.finer("Reading frame " + frame + ": "+readFrame(frame));
@@ -110,18 +373,12 @@ public class RAM implements MemoryUnit {
 	 * Mark the given frame as allocated so it cannot be allocated to another process
 	 * @param frame
 	 */
-	public void markAllocated(Integer frame) {
+	public void markAllocated(int frame) {
 		trace.finer("-->");
 		trace.fine("Allocating frame:"+frame);
-		if (!isAllocated(frame))
-			freeFrames.remove(frame);
-		String allocatedFrames = new String();
-		trace.finest("Allocated frames:");
-		for (int i=0; i<numPages; i++) {
-			if (isAllocated(i))
-				allocatedFrames = new String(allocatedFrames)+i+' ';
-		}
-		trace.fine("Allocated frames: [ "+allocatedFrames+']');
+		frames.allocate(frame);
+		if (trace.isLoggable(Level.FINEST))
+			trace.finest("Allocated frames: "+frames);
 		trace.finer("<--");
 	}
 	
@@ -132,7 +389,7 @@ public class RAM implements MemoryUnit {
 	public void markFree(int frame) {
 		trace.finer("-->");
 		trace.info("Freed frame "+frame);
-		freeFrames.add(frame);
+		frames.free(frame);
 		trace.finer("<--");
 	}
 	
@@ -142,7 +399,7 @@ public class RAM implements MemoryUnit {
 	 * @return
 	 */
 	public boolean isAllocated(int frame) {
-		return !freeFrames.contains(frame);
+		return frames.isAllocated(frame);
 	}
 	
 	/**
@@ -153,14 +410,15 @@ public class RAM implements MemoryUnit {
 	 */
 	public String read(int frame) throws HardwareInterruptException {
 		
-		String block = "";
-		int blockAddr = frame * 10;
+		StringBuilder block = new StringBuilder(blockSize);
+		int blockAddr = frame * wordsInBlock;
 		
-		for (int i = 0 ; i < 10 ; i++) {
-			block += new String(memory[blockAddr+i]);
+		for (int i = 0 ; i < wordsInBlock ; i++) {
+			block.append(dumpWord(blockAddr+i));
 		}
-		trace.fine("Reading frame# " + frame+"; data: "+block);
-		return block;
+		if (trace.isLoggable(Level.FINE))
+			trace.fine("Reading frame# " + frame+"; data: "+block);
+		return block.toString();
 	}
 	
 	/**
@@ -169,7 +427,7 @@ public class RAM implements MemoryUnit {
 	 * @return
 	 */
 	private int getBlockAddr(int addr) {
-		int blockOffset = addr % 10;
+		int blockOffset = addr % wordsInBlock;
 		int blockAddr = addr - blockOffset;
 
 		trace.fine("getBlockAddr: offset: " +blockOffset+", frame#: "+blockAddr);
@@ -188,7 +446,56 @@ public class RAM implements MemoryUnit {
 	 * @throws HardwareInterruptException 
 	 */
 	public String load(int addr) throws HardwareInterruptException {
-		return new String(memory[addr]);
+		return Word.toString(getWord(addr), wordLength);
+	}
+	
+	/**
+	 * Fetch the predecoded instruction at the given address, decoding
+	 * the word if it is not already cached
+	 * @param addr
+	 * @return
+	 * @throws HardwareInterruptException 
+	 */
+	public Instruction fetch(int addr) throws HardwareInterruptException {
+		Instruction instruction = decoded[addr];
+		if (instruction == null) {
+			instruction = Instruction.decode(loadWord(addr), geometry);
+			decoded[addr] = instruction;
+		}
+		return instruction;
+	}
+	
+	/**
+	 * Decode every word of the given frame ahead of execution
+	 * @param frame
+	 * @throws HardwareInterruptException 
+	 */
+	public void predecode(int frame) throws HardwareInterruptException {
+		int blockAddr = frame * wordsInBlock;
+		for (int i = 0 ; i < wordsInBlock ; i++) {
+			fetch(blockAddr+i);
+		}
+	}
+	
+	/**
+	 * Load a packed word from memory
+	 * @param addr
+	 * @return
+	 * @throws HardwareInterruptException 
+	 */
+	public long loadWord(int addr) throws HardwareInterruptException {
+		return getWord(addr);
+	}
+	
+	/**
+	 * Store a packed word into memory
+	 * @param addr
+	 * @param word
+	 * @throws HardwareInterruptException 
+	 */
+	public void storeWord(int addr, long word) throws HardwareInterruptException {
+		putWord(addr, word);
+		decoded[addr] = null;
 	}
 	
 	/**
@@ -198,38 +505,69 @@ public class RAM implements MemoryUnit {
 	 */
 	public void store(int addr, String data) throws HardwareInterruptException {
 		//trace.info("store <"+data+"> at "+addr);
-		memory[addr] = data.toCharArray();
+		putWord(addr, Word.pack(data, wordLength));
+		decoded[addr] = null;
+	}
+	
+	/**
+	 * Mark or unmark the given frame as holding a page table. 
+	 * The mark is dropped when the frame is next written as a block.
+	 * @param frame
+	 * @param pageTable
+	 */
+	public void markPageTable(int frame, boolean pageTable) {
+		pageTables[frame] = pageTable;
+	}
+	
+	/**
+	 * Text form of a word. Page table entries are shown as zero padded 
+	 * frame numbers, or blanks when the page is not present.
+	 * @param addr
+	 * @return
+	 */
+	private String dumpWord(int addr) {
+		if (!pageTables[addr/wordsInBlock]) {
+			return Word.toString(getWord(addr), wordLength);
+		}
+		long entry = getWord(addr);
+		if (!PageTableEntry.isPresent(entry)) {
+			return Word.toString(blank, wordLength);
+		}
+		return Utilities.padStringToLength(Integer.toString(PageTableEntry.getFrame(entry)), "0", wordLength, true);
 	}
 	
 	/**
 	 * Dumps the memory contents to a single string
 	 */
 	public String toString() {
-		int i;
-		String dump = "\n0   |1   |2   |3   |4   |5   |6   |7   |8   |9   |\n";
-		for ( i = 0; i < memory.length; i=i+10) {
-			dump += new String(memory[i])+" ";
-			dump += new String(memory[i+1])+" ";
-			dump += new String(memory[i+2])+" ";
-			dump += new String(memory[i+3])+" ";
-			dump += new String(memory[i+4])+" ";
-			dump += new String(memory[i+5])+" ";
-			dump += new String(memory[i+6])+" ";
-			dump += new String(memory[i+7])+" ";
-			dump += new String(memory[i+8])+" ";
-			dump += new String(memory[i+9])+"|";
-			dump += i+"\n";
+		StringBuilder dump = new StringBuilder("\n");
+		for (int i = 0; i < wordsInBlock; i++) {
+			dump.append(Utilities.padStringToLength(Integer.toString(i), " ", wordLength, false)).append('|');
 		}
-		return dump;
+		dump.append('\n');
+		for (int i = 0; i < size; i=i+wordsInBlock) {
+			for (int j = 0; j < wordsInBlock; j++) {
+				dump.append(dumpWord(i+j)).append(j == wordsInBlock-1 ? '|' : ' ');
+			}
+			dump.append(i).append('\n');
+		}
+		return dump.toString();
 	}
 	
 	/**
 	 * Clears memory.
 	 */
 	public void clear() {
-		memory = new char[size][wordLength];
-		for (int i = 0; i < memory.length; i++) {
-				memory[i] = BLANKS.toCharArray();
+		fillWords(0, size, blank);
+		Arrays.fill(decoded, null);
+		Arrays.fill(pageTables, false);
+		while (reclaimFrame() >= 0) {
+		}
+		contentIndex.clear();
+		Arrays.fill(contentKeys, null);
+		Arrays.fill(refs, 0);
+		for (int i = 0; i < numPages; i++) {
+			frames.markClean(i);
 		}
 	}
 }
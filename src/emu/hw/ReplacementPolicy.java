@@ -0,0 +1,47 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.hw;
+
+/**
+ * Chooses which resident page to evict when memory is full. The pager tells
+ * the policy when a frame is filled, referenced or emptied. Time is the
+ * number of memory references made so far.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public interface ReplacementPolicy {
+	/**
+	 * A page was placed in the given frame
+	 * @param frame
+	 * @param time
+	 */
+	void loaded(int frame, long time);
+	/**
+	 * The page in the given frame was referenced
+	 * @param frame
+	 * @param time
+	 */
+	void referenced(int frame, long time);
+	/**
+	 * The given frame no longer holds a pageable page
+	 * @param frame
+	 */
+	void removed(int frame);
+	/**
+	 * Pick the frame to evict
+	 * @param time
+	 * @return The frame or -1 if no frame holds a pageable page
+	 */
+	int selectVictim(long time);
+	/**
+	 * Name of the policy
+	 * @return
+	 */
+	String getName();
+}
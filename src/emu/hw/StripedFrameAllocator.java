@@ -0,0 +1,354 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.hw;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Frame allocator shared by several CPUs. The frames are dealt out round
+ * robin to stripes, each a FrameAllocator with a lock of its own. A thread
+ * allocates from its home stripe and takes frames from the other stripes
+ * only when its own runs out, so CPUs rarely wait on each other.
+ *
+ * Dirty frames handed out by nextDirty() are taken out of the free pool
+ * until markClean() returns them clean, so no other CPU can allocate a
+ * frame while it is being cleared.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class StripedFrameAllocator extends FrameAllocator {
+	/**
+	 * Allocators for the frames of each stripe, frame f is frame f/stripes
+	 * of stripe f%stripes
+	 */
+	private FrameAllocator[] stripes;
+	/**
+	 * Guards each stripe
+	 */
+	private ReentrantLock[] locks;
+	/**
+	 * Frames taken out of the free pool by nextDirty() to be cleared
+	 */
+	private boolean[] cleaning;
+	/**
+	 * Total number of frames
+	 */
+	private int frameCount;
+	/**
+	 * Times a stripe's lock was held by another thread, guarded by that stripe
+	 */
+	private long[] contended;
+	/**
+	 * Allocations served by a stripe other than the home stripe, guarded by that stripe
+	 */
+	private long[] stolen;
+
+	/**
+	 * Constructor, all frames start out free and clean
+	 * @param frames
+	 * @param stripeCount Usually the number of CPUs
+	 */
+	public StripedFrameAllocator(int frames, int stripeCount) {
+		super(0);
+		stripeCount = Math.max(1, Math.min(stripeCount, frames));
+		frameCount = frames;
+		stripes = new FrameAllocator[stripeCount];
+		locks = new ReentrantLock[stripeCount];
+		contended = new long[stripeCount];
+		stolen = new long[stripeCount];
+		cleaning = new boolean[frames];
+		for (int s = 0; s < stripeCount; s++) {
+			stripes[s] = new FrameAllocator((frames - s + stripeCount - 1) / stripeCount);
+			locks[s] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Stripe the current thread allocates from first
+	 * @return
+	 */
+	private int home() {
+		return (int) (Thread.currentThread().getId() % stripes.length);
+	}
+
+	/**
+	 * Lock a stripe, counting the times it was already held
+	 * @param s
+	 */
+	private void lock(int s) {
+		if (!locks[s].tryLock()) {
+			locks[s].lock();
+			contended[s]++;
+		}
+	}
+
+	private int stripe(int frame) {
+		return frame % stripes.length;
+	}
+
+	private int local(int frame) {
+		return frame / stripes.length;
+	}
+
+	private int global(int stripe, int local) {
+		return local * stripes.length + stripe;
+	}
+
+	@Override
+	public void setRandomPlacement(long seed) {
+		for (int s = 0; s < stripes.length; s++) {
+			lock(s);
+			try {
+				stripes[s].setRandomPlacement(seed + s);
+			} finally {
+				locks[s].unlock();
+			}
+		}
+	}
+
+	@Override
+	public void setSequentialPlacement() {
+		for (int s = 0; s < stripes.length; s++) {
+			lock(s);
+			try {
+				stripes[s].setSequentialPlacement();
+			} finally {
+				locks[s].unlock();
+			}
+		}
+	}
+
+	@Override
+	public int allocate() {
+		int home = home();
+		for (int i = 0; i < stripes.length; i++) {
+			int s = (home + i) % stripes.length;
+			lock(s);
+			try {
+				int frame = stripes[s].allocate();
+				if (frame >= 0) {
+					if (i > 0) {
+						stolen[s]++;
+					}
+					return global(s, frame);
+				}
+			} finally {
+				locks[s].unlock();
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public boolean allocate(int frame) {
+		int s = stripe(frame);
+		lock(s);
+		try {
+			return stripes[s].allocate(local(frame));
+		} finally {
+			locks[s].unlock();
+		}
+	}
+
+	@Override
+	public boolean free(int frame) {
+		int s = stripe(frame);
+		lock(s);
+		try {
+			return stripes[s].free(local(frame));
+		} finally {
+			locks[s].unlock();
+		}
+	}
+
+	@Override
+	public int nextDirty() {
+		int home = home();
+		for (int i = 0; i < stripes.length; i++) {
+			int s = (home + i) % stripes.length;
+			lock(s);
+			try {
+				int frame = stripes[s].nextDirty();
+				if (frame >= 0) {
+					stripes[s].allocate(frame);
+					cleaning[global(s, frame)] = true;
+					return global(s, frame);
+				}
+			} finally {
+				locks[s].unlock();
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public void markClean(int frame) {
+		int s = stripe(frame);
+		lock(s);
+		try {
+			if (cleaning[frame]) {
+				//Back into the free pool, then into its clean part
+				cleaning[frame] = false;
+				stripes[s].free(local(frame));
+			}
+			stripes[s].markClean(local(frame));
+		} finally {
+			locks[s].unlock();
+		}
+	}
+
+	@Override
+	public boolean isDirty(int frame) {
+		int s = stripe(frame);
+		lock(s);
+		try {
+			return stripes[s].isDirty(local(frame));
+		} finally {
+			locks[s].unlock();
+		}
+	}
+
+	@Override
+	public boolean isAllocated(int frame) {
+		int s = stripe(frame);
+		lock(s);
+		try {
+			return stripes[s].isAllocated(local(frame)) && !cleaning[frame];
+		} finally {
+			locks[s].unlock();
+		}
+	}
+
+	@Override
+	public int getFreeCount() {
+		int count = 0;
+		for (int s = 0; s < stripes.length; s++) {
+			lock(s);
+			try {
+				count += stripes[s].getFreeCount();
+			} finally {
+				locks[s].unlock();
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public int getCleanCount() {
+		int count = 0;
+		for (int s = 0; s < stripes.length; s++) {
+			lock(s);
+			try {
+				count += stripes[s].getCleanCount();
+			} finally {
+				locks[s].unlock();
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	@Override
+	public long getCleanHits() {
+		long hits = 0;
+		for (int s = 0; s < stripes.length; s++) {
+			lock(s);
+			try {
+				hits += stripes[s].getCleanHits();
+			} finally {
+				locks[s].unlock();
+			}
+		}
+		return hits;
+	}
+
+	@Override
+	public long getDirtyAllocations() {
+		long allocations = 0;
+		for (int s = 0; s < stripes.length; s++) {
+			lock(s);
+			try {
+				allocations += stripes[s].getDirtyAllocations();
+			} finally {
+				locks[s].unlock();
+			}
+		}
+		return allocations;
+	}
+
+	@Override
+	public long getCleaned() {
+		long cleaned = 0;
+		for (int s = 0; s < stripes.length; s++) {
+			lock(s);
+			try {
+				cleaned += stripes[s].getCleaned();
+			} finally {
+				locks[s].unlock();
+			}
+		}
+		return cleaned;
+	}
+
+	/**
+	 * Number of stripes
+	 * @return
+	 */
+	public int getStripeCount() {
+		return stripes.length;
+	}
+
+	/**
+	 * Times a thread found a stripe locked by another
+	 * @return
+	 */
+	public long getContended() {
+		long count = 0;
+		for (int s = 0; s < stripes.length; s++) {
+			lock(s);
+			try {
+				count += contended[s];
+			} finally {
+				locks[s].unlock();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Allocations served by a stripe other than the thread's home stripe
+	 * @return
+	 */
+	public long getStolen() {
+		long count = 0;
+		for (int s = 0; s < stripes.length; s++) {
+			lock(s);
+			try {
+				count += stolen[s];
+			} finally {
+				locks[s].unlock();
+			}
+		}
+		return count;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[ ");
+		for (int i = 0; i < frameCount; i++) {
+			if (isAllocated(i)) {
+				sb.append(i).append(' ');
+			}
+		}
+		return sb.append(']').toString();
+	}
+}
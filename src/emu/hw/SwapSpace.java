@@ -0,0 +1,129 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.hw;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
+
+/**
+ * Backing store for evicted pages, a file mapped into memory and split into
+ * slots of one frame each. Slots are handed out by a FrameAllocator.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class SwapSpace {
+	/**
+	 * For tracing
+	 */
+	static Logger trace = Logger.getLogger("emuos");
+	/**
+	 * The packed words of every slot
+	 */
+	private LongBuffer words;
+	/**
+	 * Words in a slot
+	 */
+	private int slotSize;
+	/**
+	 * Tracks the free slots
+	 */
+	private FrameAllocator slots;
+	/**
+	 * Pages written to the swap space
+	 */
+	private long pageOuts;
+	/**
+	 * Pages read back from the swap space
+	 */
+	private long pageIns;
+
+	/**
+	 * Swap space mapped onto the given file, the file is created or resized as needed
+	 * @param slotCount
+	 * @param slotSize Words in a slot
+	 * @param file
+	 * @throws IOException
+	 */
+	public SwapSpace(int slotCount, int slotSize, File file) throws IOException {
+		this.slotSize = slotSize;
+		slots = new FrameAllocator(slotCount);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			words = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) slotCount*slotSize*8)
+					.order(ByteOrder.nativeOrder()).asLongBuffer();
+		} finally {
+			raf.close();
+		}
+		trace.info("swap space of "+slotCount+" slots mapped to "+file);
+	}
+
+	/**
+	 * Take a free slot
+	 * @return The slot or -1 if the swap space is full
+	 */
+	public int allocate() {
+		return slots.allocate();
+	}
+
+	/**
+	 * Return a slot to the free pool
+	 * @param slot
+	 */
+	public void free(int slot) {
+		slots.free(slot);
+	}
+
+	/**
+	 * Write a page to the given slot
+	 * @param slot
+	 * @param page
+	 */
+	public void write(int slot, long[] page) {
+		int base = slot*slotSize;
+		for (int i = 0; i < slotSize; i++) {
+			words.put(base+i, page[i]);
+		}
+		pageOuts++;
+	}
+
+	/**
+	 * Read a page from the given slot
+	 * @param slot
+	 * @param page
+	 */
+	public void read(int slot, long[] page) {
+		int base = slot*slotSize;
+		for (int i = 0; i < slotSize; i++) {
+			page[i] = words.get(base+i);
+		}
+		pageIns++;
+	}
+
+	/**
+	 * Number of slots in use
+	 * @return
+	 */
+	public int getUsed() {
+		return slots.getFrameCount() - slots.getFreeCount();
+	}
+
+	public long getPageOuts() {
+		return pageOuts;
+	}
+
+	public long getPageIns() {
+		return pageIns;
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.hw;
+
+/**
+ * Working set clock. Like the clock a hand sweeps the frames clearing
+ * reference bits, but only a page that has gone unreferenced for longer
+ * than the working set window is evicted. If every page is in the working
+ * set the oldest unreferenced page seen in the sweep is taken.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class WSClockPolicy extends ClockPolicy {
+	/**
+	 * When each frame was last seen referenced
+	 */
+	private long[] useTime;
+	/**
+	 * Working set window in memory references
+	 */
+	private long window;
+
+	public WSClockPolicy(int frames, long window) {
+		super(frames);
+		useTime = new long[frames];
+		this.window = window;
+	}
+
+	public void loaded(int frame, long time) {
+		super.loaded(frame, time);
+		useTime[frame] = time;
+	}
+
+	public void referenced(int frame, long time) {
+		referenced[frame] = true;
+		useTime[frame] = time;
+	}
+
+	public int selectVictim(long time) {
+		int oldest = -1;
+		for (int i = 0; i < 2*resident.length; i++) {
+			int frame = advance();
+			if (!resident[frame]) {
+				continue;
+			}
+			if (referenced[frame]) {
+				referenced[frame] = false;
+			} else if (time - useTime[frame] > window) {
+				return frame;
+			} else if (oldest < 0 || useTime[frame] < useTime[oldest]) {
+				oldest = frame;
+			}
+		}
+		return oldest;
+	}
+
+	public String getName() {
+		return "wsclock";
+	}
+}
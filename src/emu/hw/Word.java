@@ -0,0 +1,103 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.hw;
+
+/**
+ * Packs a memory word of up to 8 characters into a long, one byte per
+ * character with the last character in the low byte. Characters outside of
+ * ISO-8859-1 are stored as '?'. The word length is given by the machine
+ * geometry.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class Word {
+	/**
+	 * Most characters that fit in a packed word
+	 */
+	public static final int MAX_LENGTH = 8;
+
+	private Word() {
+	}
+
+	/**
+	 * A word of blanks
+	 * @param length
+	 * @return
+	 */
+	public static long blank(int length) {
+		return pack("", 0, length);
+	}
+
+	/**
+	 * Pack the first length characters of the given string, padding with blanks
+	 * @param s
+	 * @param length
+	 * @return
+	 */
+	public static long pack(String s, int length) {
+		return pack(s, 0, length);
+	}
+
+	/**
+	 * Pack length characters of the given string starting at offset,
+	 * padding with blanks past the end of the string.
+	 * @param s
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public static long pack(String s, int offset, int length) {
+		long word = 0;
+		for (int i = offset; i < offset + length; i++) {
+			word = (word << 8) | toByte(i < s.length() ? s.charAt(i) : ' ');
+		}
+		return word;
+	}
+
+	/**
+	 * Text form of a word
+	 * @param word
+	 * @param length
+	 * @return
+	 */
+	public static String toString(long word, int length) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = charAt(word, i, length);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Append the text form of a word
+	 * @param sb
+	 * @param word
+	 * @param length
+	 */
+	public static void append(StringBuilder sb, long word, int length) {
+		for (int i = 0; i < length; i++) {
+			sb.append(charAt(word, i, length));
+		}
+	}
+
+	/**
+	 * The character at the given position of a word
+	 * @param word
+	 * @param i
+	 * @param length
+	 * @return
+	 */
+	public static char charAt(long word, int i, int length) {
+		return (char) ((word >>> ((length - 1 - i) * 8)) & 0xFF);
+	}
+
+	private static int toByte(char c) {
+		return c > 0xFF ? '?' : c;
+	}
+}
@@ -0,0 +1,209 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.os;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Input spooler. A reader thread reads the cards of the deck into a ring
+ * buffer ahead of the parser, which takes every card spooled so far at
+ * once, so parsing and loading do not wait on the disk while cards are
+ * spooled. The reader thread starts with the first card taken.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class CardSpooler {
+	/**
+	 * For tracing
+	 */
+	static Logger trace = Logger.getLogger("emuos");
+	/**
+	 * The deck
+	 */
+	private BufferedReader br;
+	/**
+	 * Cards read and not taken yet, count of them from head on
+	 */
+	private String[] ring;
+	private int head;
+	private int count;
+	/**
+	 * The reader has read the last card
+	 */
+	private boolean ended;
+	/**
+	 * Why the reader stopped before the end of the deck
+	 */
+	private IOException failure;
+	/**
+	 * Guards the ring
+	 */
+	private ReentrantLock lock = new ReentrantLock();
+	private Condition notEmpty = lock.newCondition();
+	private Condition notFull = lock.newCondition();
+	/**
+	 * Cards taken from the ring, handed out from batchPos on
+	 */
+	private String[] batch;
+	private int batchPos;
+	private int batchSize;
+	private Thread reader;
+	/**
+	 * Times the reader found the ring full, guarded by the lock
+	 */
+	private long readerWaits;
+	/**
+	 * Times the parser found the ring empty
+	 */
+	private long cardWaits;
+	/**
+	 * Times the parser took cards from the ring
+	 */
+	private long batches;
+
+	/**
+	 * Constructor
+	 * @param br The deck
+	 * @param size Most cards read ahead
+	 */
+	public CardSpooler(BufferedReader br, int size) {
+		this.br = br;
+		ring = new String[size];
+		batch = new String[size];
+	}
+
+	/**
+	 * The next card of the deck
+	 * @return The card or null at the end of the deck
+	 * @throws IOException if the deck could not be read
+	 */
+	public String next() throws IOException {
+		if (batchPos == batchSize && !refill()) {
+			return null;
+		}
+		return batch[batchPos++];
+	}
+
+	/**
+	 * Take every card in the ring, waiting for the reader if there is none
+	 * @return false at the end of the deck
+	 * @throws IOException
+	 */
+	private boolean refill() throws IOException {
+		if (reader == null) {
+			reader = new Thread(new Runnable() {
+				public void run() {
+					spool();
+				}
+			}, "emuos-spooler");
+			reader.setDaemon(true);
+			reader.start();
+		}
+		lock.lock();
+		try {
+			while (count == 0 && !ended) {
+				cardWaits++;
+				notEmpty.await();
+			}
+			if (count == 0) {
+				if (failure != null) {
+					throw failure;
+				}
+				return false;
+			}
+			int first = Math.min(count, ring.length - head);
+			System.arraycopy(ring, head, batch, 0, first);
+			System.arraycopy(ring, 0, batch, first, count - first);
+			for (int i = 0; i < count; i++) {
+				ring[(head + i) % ring.length] = null;
+			}
+			batchPos = 0;
+			batchSize = count;
+			head = (head + count) % ring.length;
+			count = 0;
+			batches++;
+			notFull.signal();
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for a card");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reader thread, runs until the end of the deck or until the spooler
+	 * is closed
+	 */
+	private void spool() {
+		try {
+			String card;
+			while ((card = br.readLine()) != null) {
+				lock.lock();
+				try {
+					while (count == ring.length) {
+						readerWaits++;
+						notFull.await();
+					}
+					ring[(head + count) % ring.length] = card;
+					if (count++ == 0) {
+						notEmpty.signal();
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+		} catch (IOException e) {
+			failure = e;
+		} catch (InterruptedException e) {
+			//Closed before the end of the deck
+		}
+		lock.lock();
+		try {
+			ended = true;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stop the reader and close the deck
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			if (reader != null) {
+				reader.interrupt();
+				reader.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			br.close();
+		}
+		trace.info(toString());
+	}
+
+	public String toString() {
+		lock.lock();
+		try {
+			return "spooled cards "+ring.length+"   spooler waits "+readerWaits
+					+"   card waits "+cardWaits+"   batches "+batches;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,425 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.os;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index of the jobs of a deck. The deck is mapped into memory and scanned
+ * once for the $AMJ, $DTA and $EOJ cards, following the same rules as the
+ * JobReader. Each job is kept as the offsets of its program and data cards
+ * and the limits of its $AMJ card, so any job can be taken without reading
+ * the ones before it, and the jobs can be handed to several machines. The
+ * data cards of a job are decoded from the mapping as they are read. The
+ * deck must be in a character set that writes ASCII as single bytes.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class DeckIndex {
+	/**
+	 * For tracing
+	 */
+	static Logger trace = Logger.getLogger("emuos");
+	/**
+	 * The deck is mapped in segments of 1 GB, a mapping holds at most 2 GB
+	 */
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+	private static final byte[] JOB_START = Process.JOB_START.getBytes();
+	private static final byte[] DATA_START = Process.DATA_START.getBytes();
+	private static final byte[] JOB_END = Process.JOB_END.getBytes();
+	/**
+	 * Offsets of the cards of each job, in a row of OFFSETS
+	 */
+	private static final int HEADER = 0;
+	private static final int PROGRAM = 1;
+	private static final int PROGRAM_END = 2;
+	private static final int DATA = 3;
+	private static final int DATA_END = 4;
+	private static final int OFFSETS = 5;
+	/**
+	 * The mapped deck
+	 */
+	private MappedByteBuffer[] segments;
+	private long size;
+	/**
+	 * Cards are decoded as a FileReader would
+	 */
+	private Charset charset = Charset.defaultCharset();
+	private int jobCount;
+	private long[] offsets = new long[16 * OFFSETS];
+	private String[] ids = new String[16];
+	private int[] maxTimes = new int[16];
+	private int[] maxPrints = new int[16];
+	/**
+	 * Priority class of each job, -1 if the $AMJ card has none
+	 */
+	private int[] priorities = new int[16];
+	/**
+	 * Why the $AMJ card of a job could not be read, thrown when the job is taken
+	 */
+	private HashMap<Integer, RuntimeException> errors = new HashMap<Integer, RuntimeException>();
+
+	/**
+	 * Map and index a deck
+	 * @param deckFile
+	 * @throws IOException
+	 */
+	public DeckIndex(String deckFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(deckFile, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			size = channel.size();
+			segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+			for (int i = 0; i < segments.length; i++) {
+				long start = (long) i << SEGMENT_BITS;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(SEGMENT_MASK + 1, size - start));
+			}
+		} finally {
+			//The mapping stays valid after the file is closed
+			file.close();
+		}
+		scan();
+		trace.info("indexed "+jobCount+" jobs in "+size+" bytes of "+deckFile);
+	}
+
+	/**
+	 * Find the cards of every job
+	 */
+	private void scan() {
+		long pos = 0;
+		long end = lineEnd(pos);
+		while (true) {
+			while (pos < size && !startsWith(pos, end, JOB_START)) {
+				if (end == pos) {
+					trace.fine("skipping empty line...");
+				} else {
+					trace.warning("skipped data line:"+decode(pos, end));
+				}
+				pos = nextLine(end);
+				end = lineEnd(pos);
+			}
+			if (pos >= size) {
+				return;
+			}
+			int job = add(pos, end);
+
+			//Program cards up to $DTA
+			pos = nextLine(end);
+			end = lineEnd(pos);
+			offsets[job * OFFSETS + PROGRAM] = pos;
+			while (pos < size && !isCard(pos, end, DATA_START)
+					&& !isCard(pos, end, JOB_END) && !isCard(pos, end, JOB_START)) {
+				pos = nextLine(end);
+				end = lineEnd(pos);
+			}
+			offsets[job * OFFSETS + PROGRAM_END] = pos;
+
+			//Data cards up to $EOJ
+			long data = -1;
+			long dataEnd = -1;
+			if (pos < size && isCard(pos, end, DATA_START)) {
+				pos = nextLine(end);
+				end = lineEnd(pos);
+				data = pos;
+				while (pos < size && !startsWith(pos, end, JOB_END) && !startsWith(pos, end, JOB_START)) {
+					pos = nextLine(end);
+					end = lineEnd(pos);
+				}
+				dataEnd = pos;
+			}
+			offsets[job * OFFSETS + DATA] = data;
+			offsets[job * OFFSETS + DATA_END] = dataEnd;
+			if (pos < size && startsWith(pos, end, JOB_END)) {
+				pos = nextLine(end);
+				end = lineEnd(pos);
+			} else {
+				//The card that ended the job starts the search for the next one
+				trace.warning("job "+ids[job]+" has no "+Process.JOB_END);
+			}
+		}
+	}
+
+	/**
+	 * Add a job and read the limits on its $AMJ card
+	 * @param header Offset of the $AMJ card
+	 * @param end Offset of the end of the card
+	 * @return The number of the job
+	 */
+	private int add(long header, long end) {
+		if (jobCount == ids.length) {
+			int n = jobCount * 2;
+			offsets = Arrays.copyOf(offsets, n * OFFSETS);
+			ids = Arrays.copyOf(ids, n);
+			maxTimes = Arrays.copyOf(maxTimes, n);
+			maxPrints = Arrays.copyOf(maxPrints, n);
+			priorities = Arrays.copyOf(priorities, n);
+		}
+		int job = jobCount++;
+		offsets[job * OFFSETS + HEADER] = header;
+		if (end - header >= 16 && isAscii(header, header + 17 > end ? end : header + 17)
+				&& isDigits(header + 8, header + 16)) {
+			ids[job] = decode(header + 4, header + 8);
+			maxTimes[job] = number(header + 8, header + 12);
+			maxPrints[job] = number(header + 12, header + 16);
+			priorities[job] = end - header > 16 && isDigits(header + 16, header + 17)
+					? byteAt(header + 16) - '0' : -1;
+		} else {
+			//Read the card as the JobReader would, to fail the same way
+			String card = decode(header, end);
+			try {
+				ids[job] = card.substring(4, 8);
+				maxTimes[job] = Integer.parseInt(card.substring(8, 12));
+				maxPrints[job] = Integer.parseInt(card.substring(12, 16));
+				priorities[job] = card.length() > 16 && Character.isDigit(card.charAt(16))
+						? card.charAt(16) - '0' : -1;
+			} catch (RuntimeException e) {
+				errors.put(job, e);
+			}
+		}
+		return job;
+	}
+
+	/**
+	 * Number of jobs in the deck
+	 * @return
+	 */
+	public int getJobCount() {
+		return jobCount;
+	}
+
+	/**
+	 * A new process for a job of the deck. Its program cards are read now,
+	 * its data cards as the program reads them.
+	 * @param n The number of the job, from 0
+	 * @return
+	 */
+	public Process getJob(int n) {
+		if (n < 0 || n >= jobCount) {
+			throw new IndexOutOfBoundsException("job "+n+" of "+jobCount);
+		}
+		if (trace.isLoggable(Level.INFO)) {
+			long header = offsets[n * OFFSETS + HEADER];
+			trace.info("Reading job:"+decode(header, lineEnd(header)));
+		}
+		RuntimeException error = errors.get(n);
+		if (error != null) {
+			throw error;
+		}
+		ArrayList<String> program = new ArrayList<String>();
+		long end = offsets[n * OFFSETS + PROGRAM_END];
+		for (long pos = offsets[n * OFFSETS + PROGRAM]; pos < end; ) {
+			long cardEnd = lineEnd(pos);
+			program.add(decode(pos, cardEnd));
+			pos = nextLine(cardEnd);
+		}
+		long data = offsets[n * OFFSETS + DATA];
+		Process job = new Process(null, ids[n], maxTimes[n], maxPrints[n], program,
+				new Cards(data, data < 0 ? data : offsets[n * OFFSETS + DATA_END]));
+		if (priorities[n] >= 0) {
+			job.getPcb().setPriority(priorities[n]);
+		}
+		return job;
+	}
+
+	/**
+	 * Data cards of a job, read from the mapping
+	 */
+	private class Cards extends AbstractQueue<String> {
+		/**
+		 * Offset of the next card, and of the end of the cards
+		 */
+		private long pos;
+		private long end;
+		/**
+		 * The next card once it has been decoded
+		 */
+		private String card;
+
+		Cards(long pos, long end) {
+			this.pos = pos;
+			this.end = end;
+		}
+
+		public String peek() {
+			if (pos >= end) {
+				return null;
+			}
+			if (card == null) {
+				card = decode(pos, lineEnd(pos));
+			}
+			return card;
+		}
+
+		public String poll() {
+			String next = peek();
+			if (next != null) {
+				pos = nextLine(lineEnd(pos));
+				card = null;
+			}
+			return next;
+		}
+
+		public boolean offer(String card) {
+			throw new UnsupportedOperationException("the data cards are read only");
+		}
+
+		public int size() {
+			int n = 0;
+			for (long p = pos; p < end; p = nextLine(lineEnd(p))) {
+				n++;
+			}
+			return n;
+		}
+
+		public Iterator<String> iterator() {
+			return new Iterator<String>() {
+				private long next = pos;
+
+				public boolean hasNext() {
+					return next < end;
+				}
+
+				public String next() {
+					if (next >= end) {
+						throw new NoSuchElementException();
+					}
+					long cardEnd = lineEnd(next);
+					String c = decode(next, cardEnd);
+					next = nextLine(cardEnd);
+					return c;
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException("the data cards are read only");
+				}
+			};
+		}
+	}
+
+	private byte byteAt(long pos) {
+		return segments[(int) (pos >>> SEGMENT_BITS)].get((int) (pos & SEGMENT_MASK));
+	}
+
+	/**
+	 * Offset of the line break after a card, a card ends at \n, \r or \r\n
+	 * like a line read by a BufferedReader
+	 * @param pos Offset of the card
+	 * @return
+	 */
+	private long lineEnd(long pos) {
+		while (pos < size) {
+			MappedByteBuffer segment = segments[(int) (pos >>> SEGMENT_BITS)];
+			long base = pos & ~SEGMENT_MASK;
+			for (int i = (int) (pos & SEGMENT_MASK); i < segment.limit(); i++) {
+				byte b = segment.get(i);
+				if (b == '\n' || b == '\r') {
+					return base + i;
+				}
+			}
+			pos = base + segment.limit();
+		}
+		return size;
+	}
+
+	/**
+	 * Offset of the card after a line break
+	 * @param end Offset of the line break
+	 * @return
+	 */
+	private long nextLine(long end) {
+		if (end >= size) {
+			return size;
+		}
+		if (byteAt(end) == '\r' && end + 1 < size && byteAt(end + 1) == '\n') {
+			return end + 2;
+		}
+		return end + 1;
+	}
+
+	/**
+	 * Does the card from pos to end start with marker
+	 */
+	private boolean startsWith(long pos, long end, byte[] marker) {
+		if (end - pos < marker.length) {
+			return false;
+		}
+		for (int i = 0; i < marker.length; i++) {
+			if (byteAt(pos + i) != marker[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Is the card from pos to end marker and nothing else
+	 */
+	private boolean isCard(long pos, long end, byte[] marker) {
+		return end - pos == marker.length && startsWith(pos, end, marker);
+	}
+
+	private boolean isAscii(long start, long end) {
+		for (long p = start; p < end; p++) {
+			if (byteAt(p) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isDigits(long start, long end) {
+		for (long p = start; p < end; p++) {
+			byte b = byteAt(p);
+			if (b < '0' || b > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int number(long start, long end) {
+		int n = 0;
+		for (long p = start; p < end; p++) {
+			n = n * 10 + byteAt(p) - '0';
+		}
+		return n;
+	}
+
+	/**
+	 * Decode the bytes from start to end
+	 */
+	private String decode(long start, long end) {
+		byte[] bytes = new byte[(int) (end - start)];
+		int done = 0;
+		while (done < bytes.length) {
+			long pos = start + done;
+			ByteBuffer segment = segments[(int) (pos >>> SEGMENT_BITS)].duplicate();
+			segment.position((int) (pos & SEGMENT_MASK));
+			int n = Math.min(bytes.length - done, segment.remaining());
+			segment.get(bytes, done, n);
+			done += n;
+		}
+		return new String(bytes, charset);
+	}
+}
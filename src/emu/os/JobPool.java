@@ -0,0 +1,162 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ * 
+ * MSCS 515
+ */
+package emu.os;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+
+/**
+ * Runs the jobs of a deck on a pool of worker threads, each with a machine
+ * of its own. Jobs share nothing but the deck, so every job produces the 
+ * same output as in a serial run. The output is written in deck order.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class JobPool {
+	/**
+	 * For tracing
+	 */
+	static Logger trace = Logger.getLogger("emuos");
+	/**
+	 * Number of worker threads
+	 */
+	private int threads;
+	/**
+	 * Settings of every machine, each worker adds its number to the
+	 * memory and swap files
+	 */
+	private Machine.Builder settings;
+	/**
+	 * Machine of each worker, built on its first job and kept warm for the next ones
+	 */
+	private ThreadLocal<Machine> machines = new ThreadLocal<Machine>();
+	/**
+	 * Machines built so far
+	 */
+	private AtomicInteger machineCount = new AtomicInteger();
+
+	/**
+	 * Constructor
+	 * @param threads
+	 * @param settings
+	 */
+	public JobPool(int threads, Machine.Builder settings) {
+		this.threads = threads;
+		this.settings = new Machine.Builder(settings);
+	}
+
+	/**
+	 * Run every job of the input deck and write their output. The jobs are
+	 * read from the deck as a serial run reads them. If the deck can not be
+	 * read past a job, the jobs before it run and the failure is thrown 
+	 * once their output is written.
+	 * @param inputFile
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public void run(String inputFile, String outputFile) throws IOException {
+		List<Callable<String>> jobs = new ArrayList<Callable<String>>();
+		Exception failure = null;
+		if (settings.isMappedDeck()) {
+			final DeckIndex index = new DeckIndex(inputFile);
+			for (int i = 0; i < index.getJobCount(); i++) {
+				final int n = i;
+				jobs.add(new Callable<String>() {
+					public String call() throws IOException {
+						return runJob(new JobReader(index, n, n + 1));
+					}
+				});
+			}
+		} else {
+			JobReader deck = new JobReader(new BufferedReader(new FileReader(inputFile)));
+			try {
+				Process job;
+				while ((job = deck.next()) != null) {
+					final List<Process> cards = Collections.singletonList(job);
+					jobs.add(new Callable<String>() {
+						public String call() throws IOException {
+							return runJob(new JobReader(cards));
+						}
+					});
+				}
+			} catch (IOException e) {
+				failure = e;
+			} catch (RuntimeException e) {
+				failure = e;
+			} finally {
+				deck.close();
+			}
+		}
+		trace.info(jobs.size()+" jobs on "+threads+" machines");
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		BufferedWriter wr = new BufferedWriter(new FileWriter(outputFile));
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (Callable<String> job : jobs) {
+				results.add(pool.submit(job));
+			}
+			//The serial run boots once
+			wr.write(Kernel.SEPARATOR);
+			for (Future<String> result : results) {
+				wr.write(result.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for a job");
+		} catch (ExecutionException e) {
+			throw new IOException("job failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+			wr.close();
+		}
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		} else if (failure != null) {
+			throw (RuntimeException) failure;
+		}
+	}
+
+	/**
+	 * Run one job on the machine of the current worker
+	 * @param job The cards of the job
+	 * @return The output of the job
+	 * @throws IOException
+	 */
+	private String runJob(JobReader job) throws IOException {
+		Machine machine = machines.get();
+		if (machine == null) {
+			int n = machineCount.getAndIncrement();
+			machine = new Machine.Builder(settings)
+					.setMemoryFile(settings.getMemoryFile()+"."+n)
+					.setSwapFile(settings.getSwapFile()+"."+n)
+					.build();
+			machines.set(machine);
+		}
+		StringWriter output = new StringWriter();
+		machine.run(job, new BufferedWriter(output));
+		//Drop what the boot sector wrote, the pool writes it once
+		return output.toString().substring(Kernel.SEPARATOR.length());
+	}
+}
@@ -0,0 +1,189 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.os;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Parses the cards of a deck into processes, one job at a time. The
+ * processes are not given to a kernel until they are loaded.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class JobReader {
+	/**
+	 * For tracing
+	 */
+	static Logger trace = Logger.getLogger("emuos");
+	/**
+	 * The deck
+	 */
+	private BufferedReader br;
+	/**
+	 * Reads the deck ahead, null to read it on the parser's thread
+	 */
+	private CardSpooler spooler;
+	/**
+	 * Card read past the end of a job that is missing its $EOJ
+	 */
+	private String lookahead;
+	/**
+	 * Index of a mapped deck, null to read the deck card by card
+	 */
+	private DeckIndex index;
+	/**
+	 * Next job of the index to take, and the job after the last one
+	 */
+	private int nextJob;
+	private int endJob;
+	/**
+	 * Jobs parsed already, null to parse the deck
+	 */
+	private Iterator<Process> parsed;
+
+	/**
+	 * Constructor
+	 * @param br The deck
+	 */
+	public JobReader(BufferedReader br) {
+		this.br = br;
+	}
+
+	/**
+	 * Constructor for a deck read ahead by an input spooler
+	 * @param spooler
+	 */
+	public JobReader(CardSpooler spooler) {
+		this.spooler = spooler;
+	}
+
+	/**
+	 * Constructor for some of the jobs of a mapped deck
+	 * @param index
+	 * @param first The first job to take
+	 * @param end The job after the last one
+	 */
+	public JobReader(DeckIndex index, int first, int end) {
+		this.index = index;
+		nextJob = first;
+		endJob = end;
+	}
+
+	/**
+	 * Constructor for jobs parsed already
+	 * @param jobs
+	 */
+	public JobReader(List<Process> jobs) {
+		parsed = jobs.iterator();
+	}
+
+	/**
+	 * Reads the cards of the next job into a new process
+	 * @return The process or null if there are no more jobs
+	 * @throws IOException
+	 */
+	public Process next() throws IOException {
+		if (parsed != null) {
+			if (!parsed.hasNext()) {
+				trace.info("No more jobs");
+				return null;
+			}
+			return parsed.next();
+		}
+		if (index != null) {
+			if (nextJob >= endJob) {
+				trace.info("No more jobs");
+				return null;
+			}
+			return index.getJob(nextJob++);
+		}
+		String nextLine = readCard();
+		while (nextLine != null && !nextLine.startsWith(Process.JOB_START)) {
+			if (nextLine.isEmpty()) {
+				trace.fine("skipping empty line...");
+			} else {
+				trace.warning("skipped data line:"+nextLine);
+			}
+			nextLine = readCard();
+		}
+		if (nextLine == null) {
+			trace.info("No more jobs");
+			return null;
+		}
+		trace.info("Reading job:"+nextLine);
+
+		//Parse Job Data
+		String id = nextLine.substring(4, 8);
+		int maxTime = Integer.parseInt(nextLine.substring(8, 12));
+		int maxPrints = Integer.parseInt(nextLine.substring(12, 16));
+
+		//Program cards up to $DTA
+		ArrayList<String> program = new ArrayList<String>();
+		String card = readCard();
+		while (card != null && !card.equals(Process.DATA_START)
+				&& !card.equals(Process.JOB_END) && !card.equals(Process.JOB_START)) {
+			program.add(card);
+			card = readCard();
+		}
+
+		//The data cards go with the process
+		ArrayDeque<String> data = new ArrayDeque<String>();
+		if (card != null && card.equals(Process.DATA_START)) {
+			card = readCard();
+			while (card != null && !card.startsWith(Process.JOB_END)
+					&& !card.startsWith(Process.JOB_START)) {
+				data.add(card);
+				card = readCard();
+			}
+		}
+		if (card == null || !card.startsWith(Process.JOB_END)) {
+			trace.warning("job "+id+" has no "+Process.JOB_END);
+			lookahead = card;
+		}
+
+		Process job = new Process(null, id, maxTime, maxPrints, program, data);
+		//Optional priority class after the line limit
+		if (nextLine.length() > 16 && Character.isDigit(nextLine.charAt(16))) {
+			job.getPcb().setPriority(nextLine.charAt(16) - '0');
+		}
+		return job;
+	}
+
+	/**
+	 * Read the next card of the deck
+	 * @return The card or null at the end of the deck
+	 * @throws IOException
+	 */
+	private String readCard() throws IOException {
+		if (lookahead != null) {
+			String card = lookahead;
+			lookahead = null;
+			return card;
+		}
+		return spooler != null ? spooler.next() : br.readLine();
+	}
+
+	/**
+	 * Close the deck
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (spooler != null) {
+			spooler.close();
+		} else if (br != null) {
+			br.close();
+		}
+	}
+}
@@ -6,12 +6,12 @@
  */
 package emu.os;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -21,8 +21,7 @@ import java.util.logging.Logger;
 import emu.hw.CPU;
 import emu.hw.CPU.Interrupt;
 import emu.hw.HardwareInterruptException;
-//import emu.hw.MMU;
-//import emu.hw.RAM;
+import emu.hw.MemoryFullException;
 import emu.util.TraceFormatter;
 
 /**
@@ -37,20 +36,48 @@ public class Kernel {
 	/**	
 	 * For tracing
 	 */
-	static Logger trace;
-	private static Kernel ref;
+	static Logger trace = Logger.getLogger("emuos");
 	/**
 	 * CPU instance
 	 */
 	CPU cpu;
+	/**
+	 * Kernel owning the deck, the output and the scheduling state shared by
+	 * the CPUs, this kernel unless it runs another CPU of the machine
+	 */
+	final Kernel primary;
+	/**
+	 * CPUs of the machine
+	 */
+	private int cpus;
 	/**
 	 * The current process (or job)
 	 */
 	Process p;
 	/**
-	 * The buffered reader for reading the input data
+	 * Loaded processes waiting for the CPU
+	 */
+	PriorityQueue<Process> readyQueue;
+	/**
+	 * Jobs read ahead from the deck, not loaded yet
+	 */
+	PriorityQueue<Process> pending;
+	/**
+	 * Jobs in deck order, until their output has been written
 	 */
-	BufferedReader br;
+	ArrayDeque<Process> deckOrder;
+	/**
+	 * Parses the jobs of the deck, null when a pipeline parses them
+	 */
+	JobReader jobs;
+	/**
+	 * Parse and output stages running next to the kernel, null without a pipeline
+	 */
+	Pipeline pipeline;
+	/**
+	 * Writes the output on a thread of its own, null to write it on the kernel's thread
+	 */
+	OutputSpooler output;
 	/**
 	 * The writer for writing the output file.
 	 */
@@ -63,6 +90,10 @@ public class Kernel {
 	 * Buffers the program output
 	 */
 	ArrayList<String> outputBuffer;
+	/**
+	 * Written to the output whenever a program terminates, the boot sector's included
+	 */
+	static final String SEPARATOR = "\n\n";
 	/**
 	 * Boot sector
 	 */
@@ -78,14 +109,78 @@ public class Kernel {
 	private int cycleCount;
 	
 	/**
-	 * Buffers the last line read from the input stream
+	 * Most free frames cleared between jobs, the rest are cleared when allocated
 	 */
-	private String lastLineRead;
-	
+	private int framesCleanedPerJob;
+	/**
+	 * Allocate the pages a program writes when it is loaded
+	 */
+	private boolean prepaging;
+	/**
+	 * Most processes loaded at once
+	 */
+	private int maxResident;
+	/**
+	 * Most jobs read ahead of loading
+	 */
+	private int window;
+	/**
+	 * Orders the jobs read ahead and the ready processes
+	 */
+	private Scheduler scheduler;
+	/**
+	 * Count of processes queued, keeps the order of equal jobs
+	 */
+	private long queued;
+	/**
+	 * Processes loaded and not terminated yet, on the primary kernel
+	 */
+	private int resident;
+	/**
+	 * The last card of the deck has been read, on the primary kernel
+	 */
+	private boolean deckDone;
 	/**
-	 * Check if the last line has been used yet.
+	 * Why the deck could not be read past the last job, on the primary kernel
 	 */
-	boolean lineBuffered = false;
+	private Exception readFailure;
+	/**
+	 * Furthest any CPU's clock had got when it last took the kernel lock,
+	 * on the primary kernel
+	 */
+	private int machineTime;
+	/**
+	 * Times this CPU found nothing to run and waited for another CPU
+	 */
+	private int idleWaits;
+	/**
+	 * Time this CPU spent waiting for a process to run
+	 */
+	private long idleNanos;
+	/**
+	 * Time units a process may run before the next ready process gets the CPU
+	 */
+	private int quantum;
+	/**
+	 * Process time at which the current time slice ends
+	 */
+	private long sliceEnd;
+	/**
+	 * Time slices handed out
+	 */
+	private int slices;
+	/**
+	 * Times the CPU was switched to another process on a time slice expiry
+	 */
+	private int contextSwitches;
+	/**
+	 * Processes terminated
+	 */
+	private int completed;
+	/**
+	 * Sum of the turnaround of the terminated processes, in CPU cycles
+	 */
+	private long totalTurnaround;
 	
 	/**
 	 * Control Flags for interrupt handling
@@ -111,7 +206,8 @@ public class Kernel {
 		THREE ( 3,"Time Limit Exceeded"),
 		FOUR  ( 4,"Operation Code Error"),
 		FIVE  ( 5,"Operand Fault"),
-		SIX   ( 6,"Invalid Page Fault");
+		SIX   ( 6,"Invalid Page Fault"),
+		SEVEN ( 7,"Memory Full");
 		int errorCode;
 		String message;
 		ErrorMessages (int errorCode, String message){
@@ -126,9 +222,18 @@ public class Kernel {
 		public String getMessage(){
 			return message;
 		}
-		public static ErrorMessages set(int err) {
+		/**
+		 * Messages indexed by errorCode+1
+		 */
+		private static final ErrorMessages[] CODES = new ErrorMessages[values().length];
+		static {
 			for (ErrorMessages m: values()) {
-				if (m.getErrCode() == err) return m;
+				CODES[m.getErrCode() + 1] = m;
+			}
+		}
+		public static ErrorMessages set(int err) {
+			if (err + 1 >= 0 && err + 1 < CODES.length) {
+				return CODES[err + 1];
 			}
 			return NA;
 		}
@@ -142,6 +247,45 @@ public class Kernel {
 	 * 		args[1] Output File
 	 * 		args[2] Trace Level
 	 * 		args[3] Trace file
+	 * System properties
+	 * 		emuos.wordLength  characters in a word, 3 to 8 (default 4)
+	 * 		emuos.frameWords  words in a frame (default 10)
+	 * 		emuos.frames      frames of physical memory (default 30)
+	 * 		emuos.addressSpace words a program can address (default 100)
+	 * 		emuos.memory      heap (default), direct or mapped
+	 * 		emuos.memory.file file backing mapped memory (default emuos.mem)
+	 * 		emuos.frames.seed place frames randomly using this seed
+	 * 		emuos.frames.clean most free frames cleared between jobs (default all)
+	 * 		emuos.pager       demand paging with fifo, lru, clock or wsclock
+	 * 		                  replacement (default none, every page stays resident)
+	 * 		emuos.swap.file   file evicted pages are written to (default emuos.swap)
+	 * 		emuos.swap.slots  pages the swap file holds (default 1000)
+	 * 		emuos.pager.window working set window of wsclock, in memory references
+	 * 		                  (default 100)
+	 * 		emuos.prepage     allocate the pages GD and SR write when a program is
+	 * 		                  loaded (default false)
+	 * 		emuos.demandZero  allocate the pages GD and SR write on the first write
+	 * 		                  without a page fault (default false)
+	 * 		emuos.share       identical program pages share a frame copy on write,
+	 * 		                  without paging only (default true)
+	 * 		emuos.resident    most jobs loaded at once (default 1)
+	 * 		emuos.quantum     time slice of a process (default 10 with more than one job loaded)
+	 * 		emuos.scheduler   fifo (default), sjf by time limit or priority by the
+	 * 		                  digit in column 17 of $AMJ, 0 first (default 5)
+	 * 		emuos.window      jobs read ahead for the scheduler (default 1 for fifo, 10 otherwise)
+	 * 		emuos.parallel    run the jobs on this many machines at once, 
+	 * 		                  each worker gets its own memory and swap file
+	 * 		emuos.cpus        CPUs sharing the memory and the ready queue (default 1),
+	 * 		                  the resident jobs default to one per CPU
+	 * 		emuos.pipeline    parse the deck and write the output on threads of their
+	 * 		                  own, with this many jobs and records queued between them
+	 * 		emuos.deck.mapped map the deck into memory and index its jobs, the 
+	 * 		                  jobs are taken from the index (default false)
+	 * 		emuos.spool       read this many cards of the deck ahead on a spooler thread
+	 * 		emuos.output.queue write the output on a spooler thread, with this many
+	 * 		                  records queued for it (the pipeline depth with a pipeline)
+	 * 		emuos.flush.jobs  flush the spooled output after this many records (default 1)
+	 * 		emuos.flush.ms    and once records have waited this long (default 0, never)
 	 */
 	public static final void main(String[] args) {
 		
@@ -155,15 +299,20 @@ public class Kernel {
 		String inputFile = args[0];
 		String outputFile = args[1];
 		
-		Kernel emu = null;
-		
 		try {
-			emu = Kernel.init(inputFile, outputFile);
-			emu.boot();
+			Machine.Builder settings = Machine.Builder.fromProperties();
+			int threads = Integer.getInteger("emuos.parallel", 0);
+			if (threads > 0) {
+				new JobPool(threads, settings).run(inputFile, outputFile);
+			} else {
+				settings.build().run(inputFile, outputFile);
+			}
 		} catch (IOException ioe) {
 			trace.log(Level.SEVERE, "IOException", ioe);
+			System.exit(1);
 		} catch (Exception e){
 			trace.log(Level.SEVERE, "Exception", e);
+			System.exit(1);
 		}
 
 	}
@@ -210,45 +359,81 @@ public class Kernel {
 
 	}
 	/**
-	 * Private Constructor
-	 * @param inputFile
-	 * @param outputFile
-	 * @throws IOException
+	 * Kernel running the jobs of a deck on the first CPU of a machine
+	 * @param machine
+	 * @param cpu
+	 * @param deck
+	 * @param wr
 	 */
-	private Kernel(String inputFile, String outputFile) throws IOException {
-		
-		trace.info("input:"+inputFile);
-		trace.info("output:"+outputFile);
+	Kernel(Machine machine, CPU cpu, JobReader deck, BufferedWriter wr) {
 		//Init HW
-		cpu = CPU.getInstance();
+		this.cpu = cpu;
+		cpus = machine.getCpuCount();
+		primary = this;
 		//mmu = new MMU(300,4,10);
 		processCount = 0;
 		inMasterMode = true;
+		framesCleanedPerJob = machine.getFramesCleanedPerJob();
+		prepaging = machine.isPrepaging();
+		maxResident = Math.max(1, machine.getResident() > 0 ? machine.getResident() : cpus);
+		//Without paging every loaded job must be able to fill its address space,
+		//with paging the page tables stay resident next to an instruction and an operand page
+		int frames = cpu.getFrameAllocator().getFrameCount();
+		int fit = cpu.getPager() == null ? frames / (cpu.getGeometry().getPages() + 1) : frames - 2;
+		if (maxResident > 1 && fit < maxResident) {
+			trace.warning("memory only holds "+fit+" jobs");
+			maxResident = Math.max(1, fit);
+		}
+		quantum = machine.getQuantum() > 0 ? machine.getQuantum() : maxResident > 1 ? 10 : Integer.MAX_VALUE;
+		scheduler = machine.getScheduler();
+		window = machine.getWindow() > 0 ? machine.getWindow() : scheduler == Scheduler.FIFO ? 1 : 10;
+		Comparator<Process> order = new Comparator<Process>() {
+			public int compare(Process a, Process b) {
+				return scheduler.compare(a.getPcb(), b.getPcb());
+			}
+		};
+		readyQueue = new PriorityQueue<Process>(maxResident, order);
+		pending = new PriorityQueue<Process>(window, order);
+		deckOrder = new ArrayDeque<Process>();
+		trace.info("resident:"+maxResident+", quantum:"+quantum+", scheduler:"+scheduler+", window:"+window);
 
 		//Init I/O
-		br = new BufferedReader(new FileReader(inputFile));
-		wr = new BufferedWriter(new FileWriter(outputFile));
-
-	}
-	
-	/**
-	 * Returns the Kernel instance.
-	 * @return
-	 */
-	public static Kernel getInstance() {
-		return ref;
+		int depth = machine.getPipelineDepth();
+		int queued = depth > 0 ? depth : machine.getOutputQueue();
+		if (queued > 0) {
+			output = new OutputSpooler(wr, queued, machine.getFlushRecords(), machine.getFlushMillis());
+		}
+		if (depth > 0) {
+			pipeline = new Pipeline(deck, output, depth);
+		} else {
+			jobs = deck;
+		}
+		this.wr = wr;
 	}
 	
 	/**
-	 * Initialized the Kernel instance
-	 * @param inputFile
-	 * @param outputFile
-	 * @return
-	 * @throws IOException
+	 * Kernel for another CPU of the machine the primary kernel runs on
+	 * @param cpu
+	 * @param primary
 	 */
-	public static Kernel init(String inputFile, String outputFile) throws IOException {
-		ref = new Kernel(inputFile, outputFile);
-		return ref;
+	Kernel(CPU cpu, Kernel primary) {
+		this.cpu = cpu;
+		this.primary = primary;
+		cpus = primary.cpus;
+		inMasterMode = true;
+		framesCleanedPerJob = primary.framesCleanedPerJob;
+		prepaging = primary.prepaging;
+		maxResident = primary.maxResident;
+		quantum = primary.quantum;
+		scheduler = primary.scheduler;
+		window = primary.window;
+		readyQueue = primary.readyQueue;
+		pending = primary.pending;
+		deckOrder = primary.deckOrder;
+		jobs = primary.jobs;
+		pipeline = primary.pipeline;
+		output = primary.output;
+		wr = primary.wr;
 	}
 	
 	/**
@@ -261,29 +446,74 @@ public class Kernel {
 		trace.finer("-->");
 		try {
 			//trace.info("starting boot process");
+			if (pipeline != null) {
+				pipeline.start();
+			} else if (output != null) {
+				output.start();
+			}
 			trace.info("start cycle "+incrementCycleCount());
 			cpu.initPageTable();
 			cpu.allocatePage(0);
 			cpu.writePage(0, bootSector);
+			cpu.setIc(0);
 			masterMode();
+			if (readFailure instanceof IOException) {
+				throw (IOException) readFailure;
+			} else if (readFailure != null) {
+				throw (RuntimeException) readFailure;
+			}
 		} catch (HardwareInterruptException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		} finally {
-			br.close();
-			wr.close();
-			//Dump memory
-			trace.fine("\n"+cpu.dumpMemory());
-
-			trace.fine("Memory contents: " + cpu.dumpMemory());
-			//Dump Kernel stats
-			trace.fine("\n"+toString());
-			//Dump memory
-			trace.fine("\n"+cpu.toString());
+			//Let CPUs waiting for work see that no more will come
+			synchronized (this) {
+				deckDone = true;
+				notifyAll();
+			}
+			if (pipeline != null) {
+				pipeline.close();
+			} else {
+				try {
+					jobs.close();
+				} finally {
+					if (output != null) {
+						output.close();
+					} else {
+						wr.close();
+					}
+				}
+			}
+			if (trace.isLoggable(Level.FINE)) {
+				//Dump memory
+				trace.fine("\n"+cpu.dumpMemory());
+				//Dump Kernel stats
+				trace.fine("\n"+toString());
+				//Dump memory
+				trace.fine("\n"+cpu.toString());
+			}
 
 		}
 	}
 	
+	/**
+	 * Runs another CPU of the machine, from the first process it is given
+	 * until no process is left
+	 * @throws IOException
+	 * @throws HardwareInterruptException on an emulator fault
+	 */
+	void runSecondary() throws IOException, HardwareInterruptException {
+		KernelStatus status;
+		synchronized (primary) {
+			status = dispatch();
+		}
+		if (status != KernelStatus.TERMINATE) {
+			masterMode();
+		}
+		if (trace.isLoggable(Level.FINE))
+			trace.fine("\n"+toString());
+	}
+	
 	/**
 	 * Called when control needs to be passed back to the OS
 	 * though called masterMode this is more of and interrupt handler for the OS
@@ -300,7 +530,13 @@ public class Kernel {
 		 * slaveMode. KernelStatus is used to control flow through this loop.
 		 */
 		trace.finer("-->");
-		trace.fine("Physical Memory:\n"+cpu.dumpMemory());
+		if (trace.isLoggable(Level.FINE))
+			trace.fine("Physical Memory:\n"+cpu.dumpMemory());
+		//The timer also runs out at the end of a time slice, that is not an error
+		if (cpu.getTi() == Interrupt.TIME_ERROR && p != null && p.getRemainingTime() >= 0) {
+			cpu.setTi(Interrupt.CLEAR);
+			status = preempt();
+		}
 		while (status == KernelStatus.INTERRUPT) {
 			//trace.info("start cycle "+incrementCycleCount());
 			trace.info(""+cpu.dumpInterupts());
@@ -330,7 +566,8 @@ public class Kernel {
 					//	Dump memory
 					trace.fine("Case:Terminate");
 
-					trace.fine("Memory contents: " + cpu.dumpMemory());
+					if (trace.isLoggable(Level.FINE))
+						trace.fine("Memory contents: " + cpu.dumpMemory());
 					status = terminate();
 					break;
 				}
@@ -356,9 +593,19 @@ public class Kernel {
 					status = KernelStatus.ABORT;
 					break;
 				case PAGE_FAULT:
+					//Pages evicted to swap are brought back and the access retried
+					if (cpu.isSwapped(cpu.getFaultPage())) {
+						cpu.swapIn(cpu.getFaultPage());
+						cpu.setPi(Interrupt.CLEAR);
+						if (!cpu.isFetchFault()) {
+							cpu.decrement();
+						}
+						status = KernelStatus.CONTINUE;
+						break;
+					}
 					boolean valid = cpu.validatePageFault();
 					if (valid){
-						int frame = cpu.allocatePage(cpu.getOperand() / 10); //TODO cleaner way to determine page #?
+						int frame = cpu.allocatePage(cpu.getOperandPage());
 						trace.fine("frame "+frame+" allocated for page "+cpu.getOperand());
 						cpu.setPi(Interrupt.CLEAR);
 						cpu.decrement();
@@ -392,7 +639,8 @@ public class Kernel {
 					break;
 				case TERMINATE:
 					//	Dump memory
-					trace.finer("\n"+cpu.dumpMemory());
+					if (trace.isLoggable(Level.FINER))
+						trace.finer("\n"+cpu.dumpMemory());
 					status = terminate();
 					break;
 				}
@@ -473,117 +721,212 @@ public class Kernel {
 	}
 	
 	/**
-	 * Loads the program into memory and starts execution.
+	 * While fewer than the most resident processes are loaded, reads jobs 
+	 * ahead up to the window and loads the one the scheduler picks, then 
+	 * gives the CPU to the next ready process. Jobs are only read when one
+	 * can be loaded.
 	 * @throws IOException 
 	 */
 	public KernelStatus load() throws IOException {
-		KernelStatus retval = KernelStatus.CONTINUE;
 		trace.finer("-->");
+		KernelStatus retval;
+		synchronized (primary) {
+			while (primary.resident < maxResident) {
+				Process job = null;
+				while (pending.size() < window && (job = readJob()) != null) {
+					queue(pending, job);
+				}
+				if (pending.isEmpty() || !loadJob(pending.poll())) {
+					break;
+				}
+				trace.fine(readyQueue.size()+" processes ready, "+pending.size()+" jobs waiting");
+			}
+			//Idle CPUs pick up the new processes
+			primary.notifyAll();
+			retval = dispatch();
+		}
+		trace.finer(retval+"<--");
+		return retval;
+	}
+	
+	/**
+	 * Takes the next job of the deck. Called with the kernel lock held. If
+	 * the deck can not be read, the jobs read before still run and boot()
+	 * throws the failure once they are done.
+	 * @return The process or null if there are no more jobs
+	 */
+	private Process readJob() {
+		if (primary.deckDone) {
+			return null;
+		}
+		Process job = null;
+		try {
+			job = pipeline != null ? pipeline.nextJob() : jobs.next();
+		} catch (IOException e) {
+			primary.readFailure = e;
+		} catch (RuntimeException e) {
+			primary.readFailure = e;
+		}
+		if (job == null) {
+			if (primary.readFailure != null) {
+				trace.warning("stopped reading the deck: "+primary.readFailure);
+			}
+			primary.deckDone = true;
+			return null;
+		}
+		job.getPcb().setArrival(now());
+		deckOrder.add(job);
+		primary.processCount++;
+		return job;
+	}
+	
+	/**
+	 * Loads the program of a job into memory and makes its process ready
+	 * @param job
+	 * @return false if the job has to wait for memory to be freed
+	 * @throws IOException
+	 */
+	private boolean loadJob(Process job) throws IOException {
+		trace.info("Loading job:"+job.getId());
 		
-		String nextLine = br.readLine();
-
-		while (nextLine != null) {
-			//Check for EOJ
-			if (nextLine.startsWith(Process.JOB_END)) {
-									
-				finishProccess();
-				
-				trace.fine("Finished job "+p.getId());
-				trace.info("Memory Dump of "+p.getId()+":"+cpu.dumpMemory());
-				
-				//read next line
-				nextLine = br.readLine();
-				trace.fine(nextLine);
+		boolean allocated = false;
+		try {
+			//Allocate the page table
+			cpu.initPageTable();
+			allocated = true;
+			
+			//Write each block of program lines into memory
+			int pagenum = 0;
+			for (String card : job.getProgram()) {
+				try {
+					trace.info("start cycle "+incrementCycleCount());
+					cpu.loadPage(pagenum, card);
+				} catch (HardwareInterruptException e) {
+					trace.log(Level.SEVERE,"HW Exception on load ",e);
+				}
+				pagenum+=1;
 			}
+			if (trace.isLoggable(Level.FINE))
+				trace.fine("Memory contents: " + cpu.dumpMemory());
 			
-			if (nextLine == null || nextLine.isEmpty()) {
-				trace.fine("skipping empty line...");
-				nextLine = br.readLine();
-				//exit();
-				continue;
+			if (prepaging) {
+				cpu.prepage(pagenum);
 			}
-			else if (nextLine.startsWith(Process.JOB_START)) {
-				trace.info("Loading job:"+nextLine);
-
-				checkForCurrentProcess();
-
-				//Allocate the page table
-				cpu.initPageTable();
-				
-				//Parse Job Data
-				String id = nextLine.substring(4, 8);
-				int maxTime = Integer.parseInt(nextLine.substring(8, 12));
-				int maxPrints = Integer.parseInt(nextLine.substring(12, 16));
-				
-				//Reads first program line
-				String programLine = br.readLine();
-				int pagenum = 0;
-				int framenum = 0;
-				
-				//Write each block of program lines into memory
-				while (programLine != null) {
-					
-					if (programLine.equals(Process.JOB_END) 
-							|| programLine.equals(Process.JOB_START)) {
-						trace.info("breaking on "+programLine);
-						break;
-					}
-					else if (programLine.equals(Process.DATA_START)) {
-						//trace.info("start cycle "+incrementCycleCount());
-						trace.info("data start on "+programLine);
-						trace.fine("Memory contents: " + cpu.dumpMemory());
-						trace.fine("CPU: "+cpu.toString());
-						
-						p = new Process(id, maxTime, maxPrints, br, wr);
-						p.startExecution();
-						processCount++;
-						trace.finer("<-- DATA_START");
-						return retval;
-					}
-					else {
-					try {
-						trace.info("start cycle "+incrementCycleCount());
-						framenum = cpu.allocatePage(pagenum);
-						cpu.writeFrame(framenum, programLine);
-					} catch (HardwareInterruptException e) {
-						trace.log(Level.SEVERE,"HW Exception on load ",e);
-						retval = KernelStatus.ABORT;
-						break;
-					}
-					}
-					pagenum+=1;
-					programLine = br.readLine();
-				}
+		} catch (MemoryFullException e) {
+			if (allocated) {
+				cpu.freePageTable();
 			}
-			else {
-				trace.warning("skipped data line:"+nextLine);
-				nextLine = br.readLine();
+			if (primary.resident > 0) {
+				//Try again once a resident process gives its memory back
+				trace.info("job "+job.getId()+" waits for memory: "+e.getMessage());
+				pending.add(job);
+				return false;
 			}
+			//Nothing else holds memory, the job can never be loaded
+			trace.warning("job "+job.getId()+" does not fit in memory: "+e.getMessage());
+			job.setKernel(this);
+			job.startExecution();
+			primary.resident++;
+			p = job;
+			setError(ErrorMessages.SEVEN.getErrCode());
+			retire();
+			return true;
 		}
-
-		trace.info("No more jobs, exiting");
-		
-		checkForCurrentProcess();
 		
-		retval = KernelStatus.TERMINATE;
-		trace.finer("<--");
-		return retval;
+		//The job may have been read ahead by another CPU
+		job.setKernel(this);
+		job.startExecution();
+		primary.resident++;
+		queue(readyQueue, job);
+		return true;
 	}
 	
 	/**
-	 * 
-	 * @throws IOException
+	 * Add a process to a queue ordered by the scheduler, behind the
+	 * processes of equal cost
+	 * @param queue
+	 * @param process
 	 */
-	private void checkForCurrentProcess() throws IOException {
-		//Check for current process
-		if (p != null && p.isRunning()) {
-			trace.warning("Process "+p.getId()+" never finished");
-			setError(ErrorMessages.NA.getErrCode());
-			finishProccess();
+	private void queue(PriorityQueue<Process> queue, Process process) {
+		process.getPcb().setQueued(primary.queued++);
+		queue.add(process);
+	}
+	
+	/**
+	 * Machine time, the clock of this CPU or of one that has run further.
+	 * Called with the kernel lock held.
+	 * @return
+	 */
+	private int now() {
+		primary.machineTime = Math.max(primary.machineTime, cpu.getClock());
+		return primary.machineTime;
+	}
+	
+	/**
+	 * Give the CPU to the process at the head of the ready queue. While
+	 * other CPUs still run processes the CPU waits for one to become ready.
+	 * Called with the kernel lock held.
+	 * @return TERMINATE if no process is left
+	 */
+	private KernelStatus dispatch() {
+		while ((p = readyQueue.poll()) == null) {
+			if (primary.resident == 0 && primary.deckDone && pending.isEmpty()) {
+				trace.info("No more jobs, exiting");
+				primary.notifyAll();
+				return KernelStatus.TERMINATE;
+			}
+			long start = System.nanoTime();
+			try {
+				primary.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return KernelStatus.TERMINATE;
+			}
+			idleWaits++;
+			idleNanos += System.nanoTime() - start;
 		}
-		
+		p.setKernel(this);
+		p.getPcb().restoreContext(cpu);
+		//The process may have run on another CPU and its page table frame 
+		//been reused since this CPU's TLB was filled
+		if (cpus > 1) {
+			cpu.flushTlb();
+		}
+		startSlice();
+		trace.info("dispatched process "+p.getId());
+		return KernelStatus.CONTINUE;
 	}
-
+	
+	/**
+	 * The time slice of the running process is over, it goes back to the
+	 * ready queue if the scheduler puts another process before it.
+	 * @return
+	 */
+	private KernelStatus preempt() {
+		synchronized (primary) {
+			p.getPcb().setQueued(primary.queued++);
+			Process next = readyQueue.peek();
+			if (next == null || scheduler.compare(next.getPcb(), p.getPcb()) > 0) {
+				startSlice();
+				return KernelStatus.CONTINUE;
+			}
+			trace.info("time slice of process "+p.getId()+" expired");
+			p.getPcb().saveContext(cpu);
+			readyQueue.add(p);
+			contextSwitches++;
+			return dispatch();
+		}
+	}
+	
+	/**
+	 * Start a new time slice for the running process
+	 */
+	private void startSlice() {
+		sliceEnd = (long) p.getTime() + quantum;
+		slices++;
+		p.getPcb().incrementSlices();
+	}
+	
 	/**
 	 * Processing of a read from the GD instruction
 	 * @return
@@ -596,21 +939,16 @@ public class Kernel {
 		
 		// get memory location and set interrupt if one exists
 		int irValue = cpu.getOperand();
-		cpu.setPi(irValue);
+		cpu.setPi(cpu.getOperandInterrupt());
+		swapInOperand();
 
-		// read next data card
-		if (!lineBuffered) {
-			lastLineRead = br.readLine();
-			trace.fine("data line from input file: "+lastLineRead);			
-			lineBuffered = true;
-		}
-		else {
-			trace.fine("using buffered line: "+lastLineRead);
-		}
+		// next data card, it is only consumed once it has been stored
+		String card = p.peekDataCard();
+		trace.fine("data card: "+card);
 		
 		trace.info("operand:"+irValue+" pi="+cpu.getPi().getValue());
-		// If next data card is $END, TERMINATE(1)
-		if (lastLineRead.startsWith(Process.JOB_END)){
+		// If there are no data cards left, TERMINATE(1)
+		if (card == null){
 			setError(1);
 			finishProccess();
 			retval = KernelStatus.ABORT;
@@ -622,11 +960,21 @@ public class Kernel {
 			// write data from data card to memory location
 			if (cpu.getPi() == Interrupt.CLEAR) {				
 				try {
-					cpu.writePage(irValue, lastLineRead);
-					lineBuffered = false;
+					long zeroFaults = cpu.getDemandZeroFaults();
+					cpu.writePage(irValue, card);
+					if (cpu.getDemandZeroFaults() != zeroFaults && !p.incrementTimeCountMaster()) {
+						//Charged as if the GD had page faulted and been restarted
+						setError(3);
+						retval = KernelStatus.ABORT;
+					} else if (cpu.getPi() == Interrupt.CLEAR) {
+						p.nextDataCard();
+					} else {
+						trace.info("HW interrupt:"+cpu.dumpInterupts());
+						retval = KernelStatus.INTERRUPT;
+					}
 				} catch (HardwareInterruptException e) {
-					trace.info("HW interrupt:"+cpu.dumpInterupts());
-					retval = KernelStatus.INTERRUPT;
+					trace.log(Level.SEVERE,"HW Exception on read ",e);
+					retval = KernelStatus.ABORT;
 				}
 				cpu.setSi(Interrupt.CLEAR);
 			} else
@@ -644,6 +992,7 @@ public class Kernel {
 		KernelStatus retval = KernelStatus.CONTINUE;
 		trace.finer("-->");
 		int irValue = 0;
+		swapInOperand();
 		// Increment the line limit counter
 		if (!p.incrementPrintCount()) {
 			retval = KernelStatus.INTERRUPT;
@@ -654,14 +1003,20 @@ public class Kernel {
 		} else {
 			// get memory location and set exception if one exists
 			irValue = cpu.getOperand();
-			cpu.setPi(irValue);
+			cpu.setPi(cpu.getOperandInterrupt());
 			if (cpu.getPi() == Interrupt.CLEAR) {
 				// write data from memory to the process outputBuffer
 				try {
-					p.write(cpu.readBlock(irValue));
+					String block = cpu.readBlock(irValue);
+					if (cpu.getPi() == Interrupt.CLEAR) {
+						p.write(block);
+					} else {
+						trace.info("HW interrupt:"+cpu.dumpInterupts());
+						retval = KernelStatus.INTERRUPT;
+					}
 				} catch (HardwareInterruptException e) {
-					trace.info("HW interrupt:"+cpu.dumpInterupts());
-					retval = KernelStatus.INTERRUPT;
+					trace.log(Level.SEVERE,"HW Exception on write ",e);
+					retval = KernelStatus.ABORT;
 				}
 				cpu.setSi(Interrupt.CLEAR);
 			} else {
@@ -672,6 +1027,17 @@ public class Kernel {
 		return retval;
 	}
 	
+	/**
+	 * Bring the page a GD or PD works on back from swap before the 
+	 * instruction is charged, so it does not have to be restarted
+	 */
+	private void swapInOperand() {
+		int page = cpu.getOperandPage();
+		if (cpu.isSwapped(page)) {
+			cpu.swapIn(page);
+		}
+	}
+	
 	/**
 	 * Called on program termination.
 	 * @throws IOException
@@ -685,14 +1051,20 @@ public class Kernel {
 		//Free the page table
 		cpu.freePageTable();
 		
-		//Toss the line that might've been read
-		lineBuffered=false;
+		//Nothing is running, clear the freed frames before the next job needs them
+		cpu.cleanFreeFrames(framesCleanedPerJob);
 		
 		//Clear all interrupts
 		cpu.clearInterrupts();
 
 		//Write 2 empty lines to the output
-		wr.write("\n\n");
+		synchronized (primary) {
+			if (p == null) {
+				writeOutput(SEPARATOR);
+			} else {
+				retire();
+			}
+		}
 		
 		// Load the next user program
 		retval = load();
@@ -701,6 +1073,27 @@ public class Kernel {
 		return retval;
 	}
 	
+	/**
+	 * Write the record of the current process and take it off the CPU.
+	 * Called with the kernel lock held, once its memory is freed.
+	 * @throws IOException
+	 */
+	private void retire() throws IOException {
+		recordWriter().write(SEPARATOR);
+		if (p.isRunning()) {
+			finishProccess();
+		}
+		p.getPcb().setCompletion(now());
+		completed++;
+		totalTurnaround += p.getPcb().getTurnaround();
+		trace.info("process "+p.getId()+" turnaround "+p.getPcb().getTurnaround()
+				+" cycles in "+p.getPcb().getSlices()+" time slices");
+		p.setTerminated();
+		p = null;
+		primary.resident--;
+		writeRecords();
+	}
+	
 	/**
 	 * Halts the OS
 	 */
@@ -718,11 +1111,10 @@ public class Kernel {
 
 	/**
 	 * Master execution cycle 
-	 * @throws HardwareInterruptException
+	 * @throws HardwareInterruptException on an emulator fault
 	 * @throws IOException 
-	 * @throws SoftwareInterruptException
 	 */
-	public void masterMode() throws IOException {
+	public void masterMode() throws IOException, HardwareInterruptException {
 		trace.finer("-->");
 		inMasterMode = false;
 		boolean done = false;
@@ -730,27 +1122,39 @@ public class Kernel {
 			try {
 				trace.info("start cycle "+incrementCycleCount());
 				slaveMode();
-			} catch (HardwareInterruptException hie) {
 				trace.info("start cycle "+incrementCycleCount());
 				trace.info("HW Interrupt from slave mode");
 				trace.fine(cpu.dumpInterupts());
 				done = interruptHandler();
-				inMasterMode = false;
+			} catch (MemoryFullException e) {
+				//Only the process that needed the frame is aborted
+				if (p == null) {
+					throw e;
+				}
+				trace.warning("process "+p.getId()+" aborted: "+e.getMessage());
+				setError(ErrorMessages.SEVEN.getErrCode());
+				done = terminate() == KernelStatus.TERMINATE;
 			}
+			inMasterMode = false;
 		}
 		trace.finer("<--");
 	}
 	
 	/**
-	 * Slave execution cycle
-	 * @throws HardwareInterruptException
+	 * Slave execution cycle, runs the process until the next interrupt
+	 * @throws HardwareInterruptException on an emulator fault
 	 */
 	public void slaveMode() throws HardwareInterruptException {
 		trace.info("start slave mode ");
-		cpu.fetch();
-		cpu.increment();
-		cpu.execute();
-		p.incrementTimeCountSlave();
+		//The boot sector runs before any process exists
+		cpu.setTimer(p == null ? Integer.MAX_VALUE 
+				: (int) Math.min(p.getRemainingTime(), sliceEnd - p.getTime() - 1));
+		try {
+			cpu.run();
+		} finally {
+			if (p != null)
+				p.incrementTimeCountSlave(cpu.getTicks());
+		}
 	}
 	
 	/**
@@ -759,29 +1163,107 @@ public class Kernel {
 	 */
 	public void finishProccess() throws IOException {
 		trace.finer("-->");
-		wr.write(p.getId()+" "+p.getTerminationStatus()+"\n");
-		wr.write(cpu.getState());
-		wr.write("    "+p.getTime()+"    "+p.getLines());
-		wr.newLine();
-		wr.newLine();
-		wr.newLine();
-		
-		ArrayList<String> buf = p.getOutputBuffer();
-		for (String line : buf) {
-			 wr.write(line);
-			 wr.newLine();
+		synchronized (primary) {
+			BufferedWriter out = recordWriter();
+			out.write(p.getId()+" "+p.getTerminationStatus()+"\n");
+			out.write(cpu.getState());
+			out.write("    "+p.getTime()+"    "+p.getLines());
+			out.newLine();
+			out.newLine();
+			out.newLine();
+			
+			ArrayList<String> buf = p.getOutputBuffer();
+			for (String line : buf) {
+				 out.write(line);
+				 out.newLine();
+			}
+			p.terminate();
 		}
-		wr.flush();
-		p.terminate();
+		trace.fine("Finished job "+p.getId());
+		if (trace.isLoggable(Level.INFO))
+			trace.info("Memory Dump of "+p.getId()+":"+cpu.dumpMemory());
 		trace.finer("<--");
 	}
 	
+	/**
+	 * Where the output of the current process goes, the output file unless
+	 * a job before it in the deck has not terminated yet
+	 * @return
+	 */
+	private BufferedWriter recordWriter() {
+		return output == null && p == deckOrder.peek() ? wr : p.getRecordWriter();
+	}
+	
+	/**
+	 * Write to the output file, through the output spooler if there is one
+	 * @param text
+	 * @throws IOException
+	 */
+	private void writeOutput(String text) throws IOException {
+		if (output != null) {
+			output.write(text);
+		} else {
+			wr.write(text);
+		}
+	}
+	
+	/**
+	 * Writes the held output of the terminated processes to the output file, 
+	 * in deck order
+	 * @throws IOException
+	 */
+	private void writeRecords() throws IOException {
+		while (!deckOrder.isEmpty() && deckOrder.peek().isTerminated()) {
+			writeOutput(deckOrder.poll().getRecord());
+		}
+		if (output == null) {
+			//The next job writes straight to the output from now on, after
+			//what it wrote while running on another CPU
+			if (!deckOrder.isEmpty()) {
+				wr.write(deckOrder.peek().getRecord());
+			}
+			wr.flush();
+		}
+	}
+	
 	/**
 	 * Writes the process state and buffer to the output file
 	 * @throws IOException
 	 */
 	public String toString(){
-		return "cpu cycles "+cpu.getClock()+"   total processes "+processCount; 
+		return "cpu cycles "+cpu.getClock()+"   total processes "+primary.processCount
+				+"   tlb hits "+cpu.getTlbHits()+"   tlb misses "+cpu.getTlbMisses()
+				+"   clean frame hits "+cpu.getFrameAllocator().getCleanHits()
+				+"   frames cleared on demand "+cpu.getFrameAllocator().getDirtyAllocations()
+				+"   frames cleared idle "+cpu.getFrameAllocator().getCleaned()
+				+"   page faults "+cpu.getPageFaults()
+				+"   demand zero faults "+cpu.getDemandZeroFaults()
+				+"   prepaged "+cpu.getPrepaged()+" ("+cpu.getPrepagedUsed()+" used)"
+				+"   shared program pages "+cpu.getSharedHits()
+				+"   copies on write "+cpu.getCopiesOnWrite()
+				+(cpu.getPager() == null ? "" : "   "+cpu.getPager())
+				+"   scheduler "+scheduler.name().toLowerCase()+"   window "+window
+				+"   quantum "+quantum+"   time slices "+slices+"   context switches "+contextSwitches
+				+"   throughput "+String.format("%.2f", getThroughput())+" jobs/1000 cycles"
+				+"   average turnaround "+String.format("%.1f", getAverageTurnaround())+" cycles"
+				+(cpus == 1 ? "" : "   completed "+completed+"   idle waits "+idleWaits
+						+" ("+(idleNanos/1000000)+" ms)"); 
+	}
+	
+	/**
+	 * Processes terminated per thousand CPU cycles
+	 * @return
+	 */
+	public double getThroughput() {
+		return cpu.getClock() == 0 ? 0 : 1000.0 * completed / cpu.getClock();
+	}
+	
+	/**
+	 * Average CPU cycles between loading and terminating a process
+	 * @return
+	 */
+	public double getAverageTurnaround() {
+		return completed == 0 ? 0 : (double) totalTurnaround / completed;
 	}
 
 	/**
@@ -0,0 +1,627 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.os;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import emu.hw.BufferRAM;
+import emu.hw.CPU;
+import emu.hw.Geometry;
+import emu.hw.MMU;
+import emu.hw.Pager;
+import emu.hw.RAM;
+import emu.hw.ReplacementPolicy;
+import emu.hw.StripedFrameAllocator;
+import emu.hw.SwapSpace;
+
+/**
+ * A machine that runs decks: the memory, its CPUs and the settings of the
+ * kernels booted on them. Machines share nothing, so any number of them
+ * can live in one JVM, and a machine can run one deck after another.
+ * A machine runs one deck at a time.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class Machine {
+	/**
+	 * For tracing
+	 */
+	static Logger trace = Logger.getLogger("emuos");
+
+	/**
+	 * Settings of a machine, every setter returns the builder
+	 */
+	public static class Builder {
+		private Geometry geometry = Geometry.DEFAULT;
+		private String memory = "heap";
+		private String memoryFile = "emuos.mem";
+		private String swapFile = "emuos.swap";
+		private Long frameSeed;
+		private int framesCleanedPerJob = Integer.MAX_VALUE;
+		private boolean demandZero;
+		private boolean sharing = true;
+		private String pager;
+		private int swapSlots = 1000;
+		private int pagerWindow = 100;
+		private boolean prepaging;
+		private int cpus = 1;
+		private int resident;
+		private int quantum;
+		private Scheduler scheduler = Scheduler.FIFO;
+		private int window;
+		private int pipeline;
+		private int spool;
+		private boolean mappedDeck;
+		private int outputQueue;
+		private int flushRecords = 1;
+		private long flushMillis;
+
+		/**
+		 * Builder for a machine of the default shape, with one CPU,
+		 * memory on the heap and no paging
+		 */
+		public Builder() {
+		}
+
+		/**
+		 * Builder with the settings of another
+		 * @param other
+		 */
+		public Builder(Builder other) {
+			geometry = other.geometry;
+			memory = other.memory;
+			memoryFile = other.memoryFile;
+			swapFile = other.swapFile;
+			frameSeed = other.frameSeed;
+			framesCleanedPerJob = other.framesCleanedPerJob;
+			demandZero = other.demandZero;
+			sharing = other.sharing;
+			pager = other.pager;
+			swapSlots = other.swapSlots;
+			pagerWindow = other.pagerWindow;
+			prepaging = other.prepaging;
+			cpus = other.cpus;
+			resident = other.resident;
+			quantum = other.quantum;
+			scheduler = other.scheduler;
+			window = other.window;
+			pipeline = other.pipeline;
+			spool = other.spool;
+			mappedDeck = other.mappedDeck;
+			outputQueue = other.outputQueue;
+			flushRecords = other.flushRecords;
+			flushMillis = other.flushMillis;
+		}
+
+		/**
+		 * Builder with the settings given by the emuos.* system properties,
+		 * see Kernel.main()
+		 * @return
+		 */
+		public static Builder fromProperties() {
+			Builder b = new Builder();
+			Geometry d = Geometry.DEFAULT;
+			b.setGeometry(new Geometry(Integer.getInteger("emuos.wordLength", d.getWordLength()),
+					Integer.getInteger("emuos.frameWords", d.getWordsPerFrame()),
+					Integer.getInteger("emuos.frames", d.getFrames()),
+					Integer.getInteger("emuos.addressSpace", d.getAddressSpace())));
+			b.setMemory(System.getProperty("emuos.memory", b.memory));
+			b.setMemoryFile(System.getProperty("emuos.memory.file", b.memoryFile));
+			b.setSwapFile(System.getProperty("emuos.swap.file", b.swapFile));
+			String seed = System.getProperty("emuos.frames.seed");
+			if (seed != null) {
+				b.setFrameSeed(Long.parseLong(seed));
+			}
+			b.setFramesCleanedPerJob(Integer.getInteger("emuos.frames.clean", b.framesCleanedPerJob));
+			b.setDemandZero(Boolean.getBoolean("emuos.demandZero"));
+			b.setSharing(!"false".equals(System.getProperty("emuos.share")));
+			b.setPager(System.getProperty("emuos.pager"));
+			b.setSwapSlots(Integer.getInteger("emuos.swap.slots", b.swapSlots));
+			b.setPagerWindow(Integer.getInteger("emuos.pager.window", b.pagerWindow));
+			b.setPrepaging(Boolean.getBoolean("emuos.prepage"));
+			b.setCpus(Integer.getInteger("emuos.cpus", b.cpus));
+			b.setResident(Integer.getInteger("emuos.resident", b.resident));
+			b.setQuantum(Integer.getInteger("emuos.quantum", b.quantum));
+			b.setScheduler(Scheduler.forName(System.getProperty("emuos.scheduler", "fifo")));
+			b.setWindow(Integer.getInteger("emuos.window", b.window));
+			b.setPipeline(Integer.getInteger("emuos.pipeline", b.pipeline));
+			b.setSpool(Integer.getInteger("emuos.spool", b.spool));
+			b.setMappedDeck(Boolean.getBoolean("emuos.deck.mapped"));
+			b.setOutputQueue(Integer.getInteger("emuos.output.queue", b.outputQueue));
+			b.setFlushPolicy(Integer.getInteger("emuos.flush.jobs", b.flushRecords),
+					Long.getLong("emuos.flush.ms", b.flushMillis));
+			return b;
+		}
+
+		public Builder setGeometry(Geometry geometry) {
+			this.geometry = geometry;
+			return this;
+		}
+
+		/**
+		 * @param memory heap, direct or mapped
+		 * @return
+		 */
+		public Builder setMemory(String memory) {
+			this.memory = memory;
+			return this;
+		}
+
+		/**
+		 * @param memoryFile File backing mapped memory
+		 * @return
+		 */
+		public Builder setMemoryFile(String memoryFile) {
+			this.memoryFile = memoryFile;
+			return this;
+		}
+
+		public String getMemoryFile() {
+			return memoryFile;
+		}
+
+		/**
+		 * @param swapFile File backing the swap space
+		 * @return
+		 */
+		public Builder setSwapFile(String swapFile) {
+			this.swapFile = swapFile;
+			return this;
+		}
+
+		public String getSwapFile() {
+			return swapFile;
+		}
+
+		/**
+		 * @param seed Place frames randomly using this seed
+		 * @return
+		 */
+		public Builder setFrameSeed(long seed) {
+			frameSeed = seed;
+			return this;
+		}
+
+		/**
+		 * @param framesCleanedPerJob Most free frames cleared between jobs
+		 * @return
+		 */
+		public Builder setFramesCleanedPerJob(int framesCleanedPerJob) {
+			this.framesCleanedPerJob = framesCleanedPerJob;
+			return this;
+		}
+
+		/**
+		 * @param demandZero Allocate the pages of GD and SR without a page fault
+		 * @return
+		 */
+		public Builder setDemandZero(boolean demandZero) {
+			this.demandZero = demandZero;
+			return this;
+		}
+
+		/**
+		 * @param sharing Identical program pages share frames, without paging only
+		 * @return
+		 */
+		public Builder setSharing(boolean sharing) {
+			this.sharing = sharing;
+			return this;
+		}
+
+		/**
+		 * @param pager Replacement policy for demand paging, null for no paging
+		 * @return
+		 */
+		public Builder setPager(String pager) {
+			this.pager = pager;
+			return this;
+		}
+
+		public Builder setSwapSlots(int swapSlots) {
+			this.swapSlots = swapSlots;
+			return this;
+		}
+
+		public Builder setPagerWindow(int pagerWindow) {
+			this.pagerWindow = pagerWindow;
+			return this;
+		}
+
+		/**
+		 * @param prepaging Allocate the pages a program writes when it is loaded
+		 * @return
+		 */
+		public Builder setPrepaging(boolean prepaging) {
+			this.prepaging = prepaging;
+			return this;
+		}
+
+		/**
+		 * @param cpus CPUs sharing the memory and the ready queue
+		 * @return
+		 */
+		public Builder setCpus(int cpus) {
+			this.cpus = cpus;
+			return this;
+		}
+
+		/**
+		 * @param resident Most jobs loaded at once, 0 for one per CPU
+		 * @return
+		 */
+		public Builder setResident(int resident) {
+			this.resident = resident;
+			return this;
+		}
+
+		/**
+		 * @param quantum Time slice of a process, 0 for 10 with more than one
+		 * job loaded and unlimited otherwise
+		 * @return
+		 */
+		public Builder setQuantum(int quantum) {
+			this.quantum = quantum;
+			return this;
+		}
+
+		public Builder setScheduler(Scheduler scheduler) {
+			this.scheduler = scheduler;
+			return this;
+		}
+
+		/**
+		 * @param window Jobs read ahead for the scheduler, 0 for 1 with fifo
+		 * and 10 otherwise
+		 * @return
+		 */
+		public Builder setWindow(int window) {
+			this.window = window;
+			return this;
+		}
+
+		/**
+		 * @param pipeline Jobs parsed ahead and records queued for the output
+		 * by stages running next to the kernel, 0 to parse and write on the
+		 * kernel's thread
+		 * @return
+		 */
+		public Builder setPipeline(int pipeline) {
+			this.pipeline = pipeline;
+			return this;
+		}
+
+		/**
+		 * @param spool Cards of the deck read ahead by an input spooler, 0 to
+		 * read them as they are parsed
+		 * @return
+		 */
+		public Builder setSpool(int spool) {
+			this.spool = spool;
+			return this;
+		}
+
+		/**
+		 * @param mappedDeck Map a deck file into memory and take its jobs
+		 * from an index instead of reading it card by card
+		 * @return
+		 */
+		public Builder setMappedDeck(boolean mappedDeck) {
+			this.mappedDeck = mappedDeck;
+			return this;
+		}
+
+		public boolean isMappedDeck() {
+			return mappedDeck;
+		}
+
+		/**
+		 * @param outputQueue Records queued for an output spooler, 0 to write
+		 * them on the kernel's thread. A pipeline always has a spooler.
+		 * @return
+		 */
+		public Builder setOutputQueue(int outputQueue) {
+			this.outputQueue = outputQueue;
+			return this;
+		}
+
+		/**
+		 * When the output spooler flushes, it always does once the deck is done
+		 * @param records Flush after this many records
+		 * @param millis Flush records that have waited this long, 0 to flush by count only
+		 * @return
+		 */
+		public Builder setFlushPolicy(int records, long millis) {
+			flushRecords = records;
+			flushMillis = millis;
+			return this;
+		}
+
+		/**
+		 * Build the memory and CPUs of a new machine
+		 * @return
+		 * @throws IOException
+		 */
+		public Machine build() throws IOException {
+			return new Machine(new Builder(this));
+		}
+	}
+
+	/**
+	 * The settings the machine was built with
+	 */
+	private Builder settings;
+	/**
+	 * Physical memory
+	 */
+	private RAM ram;
+	/**
+	 * The CPUs, the first one boots
+	 */
+	private CPU[] cpus;
+	/**
+	 * Frame allocator shared by the CPUs, null with one CPU
+	 */
+	private StripedFrameAllocator stripes;
+
+	/**
+	 * Build the memory and the CPUs. Demand paging and shared program
+	 * pages would need every CPU's TLB flushed on each eviction or copy, so
+	 * they are only available with one CPU.
+	 * @param settings
+	 * @throws IOException
+	 */
+	private Machine(Builder settings) throws IOException {
+		this.settings = settings;
+		int count = Math.max(1, settings.cpus);
+		if (count > 1 && settings.pager != null) {
+			throw new IllegalArgumentException("demand paging is not supported with more than one CPU");
+		}
+		Geometry geometry = settings.geometry;
+		if (settings.pager == null && geometry.getFrames() < geometry.getPages() + 1) {
+			//Without paging a job may need its page table and every page at once
+			throw new IllegalArgumentException(geometry.getFrames()+" frames can not hold a page table and "
+					+geometry.getPages()+" pages, use more frames or demand paging");
+		} else if (settings.pager != null && geometry.getFrames() < 3) {
+			//A page table, an instruction page and an operand page stay resident
+			throw new IllegalArgumentException("demand paging needs at least 3 frames: "+geometry.getFrames());
+		}
+		ram = initRam(settings.geometry, settings.memory, settings.memoryFile);
+		if (count > 1) {
+			stripes = new StripedFrameAllocator(settings.geometry.getFrames(), count);
+			ram.setFrameAllocator(stripes);
+		}
+		if (settings.frameSeed != null) {
+			ram.getFrameAllocator().setRandomPlacement(settings.frameSeed);
+		}
+		cpus = new CPU[count];
+		for (int i = 0; i < count; i++) {
+			cpus[i] = new CPU(initMmu());
+		}
+	}
+
+	/**
+	 * Build the physical memory
+	 * @param geometry shape of the machine
+	 * @param backend heap, direct or mapped
+	 * @param file file backing mapped memory
+	 * @return
+	 * @throws IOException
+	 */
+	private static RAM initRam(Geometry geometry, String backend, String file) throws IOException {
+		trace.info("memory:"+backend);
+		if (backend.equals("direct")) {
+			return new BufferRAM(geometry);
+		} else if (backend.equals("mapped")) {
+			return new BufferRAM(geometry,new File(file));
+		} else if (backend.equals("heap")) {
+			return new RAM(geometry);
+		}
+		throw new IllegalArgumentException("unknown memory backend "+backend);
+	}
+
+	/**
+	 * Build an MMU over the memory. Demand paging is turned on by naming a
+	 * replacement policy. Without paging identical program pages share
+	 * frames unless sharing is turned off.
+	 * @return
+	 * @throws IOException
+	 */
+	private MMU initMmu() throws IOException {
+		Geometry geometry = settings.geometry;
+		MMU mmu = new MMU(ram);
+		mmu.setDemandZero(settings.demandZero);
+		if (settings.pager != null) {
+			SwapSpace swap = new SwapSpace(settings.swapSlots, geometry.getWordsPerFrame(),
+					new File(settings.swapFile));
+			ReplacementPolicy replacement = Pager.createPolicy(settings.pager, geometry.getFrames(),
+					settings.pagerWindow);
+			mmu.setPager(new Pager(replacement, swap, geometry.getFrames()));
+			trace.info("demand paging with "+replacement.getName());
+		} else {
+			//Shared frames can not be evicted, so they are only used without paging
+			mmu.setSharing(settings.sharing && cpus.length == 1);
+		}
+		return mmu;
+	}
+
+	/**
+	 * Run a deck, closing both files at the end
+	 * @param inputFile
+	 * @param outputFile
+	 * @return The kernel of the first CPU
+	 * @throws IOException
+	 */
+	public Kernel run(String inputFile, String outputFile) throws IOException {
+		trace.info("input:"+inputFile);
+		trace.info("output:"+outputFile);
+		if (settings.mappedDeck) {
+			DeckIndex index = new DeckIndex(inputFile);
+			return run(new JobReader(index, 0, index.getJobCount()),
+					new BufferedWriter(new FileWriter(outputFile)));
+		}
+		return run(new BufferedReader(new FileReader(inputFile)),
+				new BufferedWriter(new FileWriter(outputFile)));
+	}
+
+	/**
+	 * Run the deck read from br and write its output to wr, closing both
+	 * at the end
+	 * @param br
+	 * @param wr
+	 * @return The kernel of the first CPU
+	 * @throws IOException
+	 */
+	public Kernel run(BufferedReader br, BufferedWriter wr) throws IOException {
+		return run(settings.spool > 0 ? new JobReader(new CardSpooler(br, settings.spool))
+				: new JobReader(br), wr);
+	}
+
+	/**
+	 * Run the jobs of a deck and write their output to wr, closing both
+	 * at the end. The first CPU boots, the others wait for processes to
+	 * be loaded.
+	 * @param deck
+	 * @param wr
+	 * @return The kernel of the first CPU
+	 * @throws IOException
+	 */
+	public Kernel run(JobReader deck, BufferedWriter wr) throws IOException {
+		Kernel primary = new Kernel(this, cpus[0], deck, wr);
+		Kernel[] kernels = new Kernel[cpus.length];
+		Thread[] threads = new Thread[cpus.length];
+		kernels[0] = primary;
+		for (int i = 1; i < cpus.length; i++) {
+			final Kernel kernel = new Kernel(cpus[i], primary);
+			kernels[i] = kernel;
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						kernel.runSecondary();
+					} catch (Exception e) {
+						trace.log(Level.SEVERE, "Exception", e);
+					}
+				}
+			}, "emuos-cpu"+i);
+			threads[i].start();
+		}
+		boolean booted = false;
+		try {
+			primary.boot();
+			booted = true;
+		} finally {
+			if (!booted) {
+				//The other CPUs may wait for processes that will never run
+				stopSecondaries(threads);
+			}
+		}
+		try {
+			for (int i = 1; i < cpus.length; i++) {
+				threads[i].join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for a CPU");
+		}
+		if (stripes != null && trace.isLoggable(Level.INFO)) {
+			for (int i = 0; i < cpus.length; i++) {
+				trace.info("cpu "+i+": "+kernels[i]);
+			}
+			trace.info("frame stripes "+stripes.getStripeCount()+"   stripes found locked "+stripes.getContended()
+					+"   frames taken from other stripes "+stripes.getStolen());
+		}
+		return primary;
+	}
+
+	/**
+	 * Interrupt the other CPUs and wait for them to stop, after the first
+	 * CPU failed
+	 * @param threads The threads of the other CPUs, from 1 on
+	 */
+	private void stopSecondaries(Thread[] threads) {
+		for (int i = 1; i < threads.length; i++) {
+			threads[i].interrupt();
+		}
+		try {
+			for (int i = 1; i < threads.length; i++) {
+				threads[i].join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * The CPU that boots
+	 * @return
+	 */
+	public CPU getCpu() {
+		return cpus[0];
+	}
+
+	/**
+	 * Number of CPUs
+	 * @return
+	 */
+	public int getCpuCount() {
+		return cpus.length;
+	}
+
+	public Geometry getGeometry() {
+		return settings.geometry;
+	}
+
+	int getFramesCleanedPerJob() {
+		return settings.framesCleanedPerJob;
+	}
+
+	boolean isPrepaging() {
+		return settings.prepaging;
+	}
+
+	int getResident() {
+		return settings.resident;
+	}
+
+	int getQuantum() {
+		return settings.quantum;
+	}
+
+	Scheduler getScheduler() {
+		return settings.scheduler;
+	}
+
+	int getWindow() {
+		return settings.window;
+	}
+
+	int getPipelineDepth() {
+		return settings.pipeline;
+	}
+
+	int getOutputQueue() {
+		return settings.outputQueue;
+	}
+
+	int getFlushRecords() {
+		return settings.flushRecords;
+	}
+
+	long getFlushMillis() {
+		return settings.flushMillis;
+	}
+}
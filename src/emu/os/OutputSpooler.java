@@ -0,0 +1,206 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.os;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Output spooler. The kernel queues the records of finished jobs and a
+ * writer thread writes every record queued so far in one go. The output
+ * is flushed once the given number of records has been written since the
+ * last flush, once the given time has passed with records not flushed,
+ * and when the spooler is closed.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class OutputSpooler {
+	/**
+	 * For tracing
+	 */
+	static Logger trace = Logger.getLogger("emuos");
+	/**
+	 * Queued after the last record of the output
+	 */
+	private static final String CLOSE = new String();
+	/**
+	 * The output file
+	 */
+	private BufferedWriter wr;
+	/**
+	 * Records queued and not written yet
+	 */
+	private ArrayBlockingQueue<String> records;
+	/**
+	 * Flush after this many records
+	 */
+	private int flushRecords;
+	/**
+	 * Flush records not flushed after this many milliseconds, 0 to only
+	 * flush by count
+	 */
+	private long flushMillis;
+	private Thread writer;
+	/**
+	 * Why the writer stopped writing
+	 */
+	private volatile IOException failure;
+	/**
+	 * Times the kernel found the queue full
+	 */
+	private long recordWaits;
+	/**
+	 * Writes of the records queued at once, on the writer thread
+	 */
+	private long batches;
+	/**
+	 * Records written, on the writer thread
+	 */
+	private long written;
+	/**
+	 * Times the output was flushed, on the writer thread
+	 */
+	private long flushes;
+
+	/**
+	 * Constructor
+	 * @param wr The output file
+	 * @param size Most records queued
+	 * @param flushRecords Flush after this many records
+	 * @param flushMillis Flush after this many milliseconds, 0 to only flush by count
+	 */
+	public OutputSpooler(BufferedWriter wr, int size, int flushRecords, long flushMillis) {
+		this.wr = wr;
+		records = new ArrayBlockingQueue<String>(size);
+		this.flushRecords = Math.max(1, flushRecords);
+		this.flushMillis = flushMillis;
+	}
+
+	/**
+	 * Start the writer thread
+	 */
+	public void start() {
+		writer = new Thread(new Runnable() {
+			public void run() {
+				spool();
+			}
+		}, "emuos-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Writer thread, runs until the spooler is closed
+	 */
+	private void spool() {
+		ArrayList<String> batch = new ArrayList<String>();
+		int unflushed = 0;
+		long lastFlush = System.currentTimeMillis();
+		try {
+			while (true) {
+				String record;
+				if (unflushed > 0 && flushMillis > 0) {
+					long wait = lastFlush + flushMillis - System.currentTimeMillis();
+					record = records.poll(Math.max(0, wait), TimeUnit.MILLISECONDS);
+				} else {
+					record = records.take();
+				}
+				boolean closing = false;
+				if (record != null) {
+					batch.add(record);
+					records.drainTo(batch);
+					if (batch.get(batch.size() - 1) == CLOSE) {
+						batch.remove(batch.size() - 1);
+						closing = true;
+					}
+				}
+				if (failure == null) {
+					try {
+						for (String r : batch) {
+							wr.write(r);
+						}
+						if (!batch.isEmpty()) {
+							batches++;
+							written += batch.size();
+							unflushed += batch.size();
+						}
+						if (unflushed > 0 && (closing || unflushed >= flushRecords
+								|| flushMillis > 0 && System.currentTimeMillis() - lastFlush >= flushMillis)) {
+							wr.flush();
+							flushes++;
+							unflushed = 0;
+							lastFlush = System.currentTimeMillis();
+						}
+					} catch (IOException e) {
+						//Keep taking records so the kernel does not block
+						failure = e;
+					}
+				}
+				batch.clear();
+				if (closing) {
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			return;
+		}
+	}
+
+	/**
+	 * Queue a record for the output
+	 * @param record
+	 * @throws IOException if the output could not be written
+	 */
+	public void write(String record) throws IOException {
+		if (failure != null) {
+			throw failure;
+		}
+		try {
+			if (!records.offer(record)) {
+				recordWaits++;
+				records.put(record);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted writing a record");
+		}
+	}
+
+	/**
+	 * Write and flush the queued records and close the output
+	 * @throws IOException if the output could not be written
+	 */
+	public void close() throws IOException {
+		try {
+			if (writer != null) {
+				records.put(CLOSE);
+				writer.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted closing the output");
+		} finally {
+			wr.close();
+		}
+		trace.info(toString());
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	public String toString() {
+		return "output queue "+(records.size()+records.remainingCapacity())+"   record waits "+recordWaits
+				+"   records written "+written+" in "+batches+" writes   flushes "+flushes;
+	}
+}
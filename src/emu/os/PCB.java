@@ -2,12 +2,19 @@ package emu.os;
 
 import java.util.logging.Logger;
 
+import emu.hw.CPU;
+import emu.hw.Instruction;
+
 /**
  * Process Control Block
  * @author b.j.drew@gmail.com
  *
  */
 public class PCB {
+	/**
+	 * Priority of a job card without a priority class
+	 */
+	public static final int DEFAULT_PRIORITY = 5;
 	/**
 	 * Tracer
 	 */
@@ -24,10 +31,54 @@ public class PCB {
 	 * Max number of prints
 	 */
 	int maxPrints;
-
 	/**
-	 * was there an error in this process
+	 * Priority class from the job card, lower runs first
+	 */
+	int priority = DEFAULT_PRIORITY;
+	/**
+	 * Position in the queue the process waits in, breaks ties between equal jobs
+	 */
+	long queued;
+	/**
+	 * Saved page table register
 	 */
+	int ptr;
+	/**
+	 * Saved page table length
+	 */
+	int ptl;
+	/**
+	 * Saved instruction counter
+	 */
+	int ic;
+	/**
+	 * Saved instruction register, null before the first fetch
+	 */
+	Instruction ir;
+	/**
+	 * Saved general register, packed
+	 */
+	long gr;
+	/**
+	 * Set once the general register has been loaded
+	 */
+	boolean grLoaded;
+	/**
+	 * Saved toggle
+	 */
+	boolean c;
+	/**
+	 * CPU clock when the job was read from the deck
+	 */
+	int arrival;
+	/**
+	 * CPU clock when the job terminated
+	 */
+	int completion;
+	/**
+	 * Time slices the process was given the CPU for
+	 */
+	int slices;
 	
 	public PCB(String id, int maxTime, int maxPrints) {
 		trace.info("id="+id+", maxTime="+maxTime+", maxPrints="+maxPrints);
@@ -59,4 +110,81 @@ public class PCB {
 	public void setMaxPrints(int maxPrints) {
 		this.maxPrints = maxPrints;
 	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	public void setPriority(int priority) {
+		this.priority = priority;
+	}
+
+	public long getQueued() {
+		return queued;
+	}
+
+	public void setQueued(long queued) {
+		this.queued = queued;
+	}
+
+	/**
+	 * Copy the registers and page table of the CPU into the PCB
+	 * @param cpu
+	 */
+	public void saveContext(CPU cpu) {
+		ptr = cpu.getPtr();
+		ptl = cpu.getPtl();
+		ic = cpu.getIc();
+		ir = cpu.getInstruction();
+		gr = cpu.getGrWord();
+		grLoaded = cpu.isGrLoaded();
+		c = cpu.isC();
+		trace.fine("saved "+id+" ptr="+ptr+", ptl="+ptl+", ic="+ic);
+	}
+	
+	/**
+	 * Load the CPU with the registers and page table saved in the PCB
+	 * @param cpu
+	 */
+	public void restoreContext(CPU cpu) {
+		cpu.setPtr(ptr);
+		cpu.setPtl(ptl);
+		cpu.setIc(ic);
+		cpu.setInstruction(ir);
+		cpu.setGr(gr, grLoaded);
+		cpu.setC(c);
+		trace.fine("restored "+id+" ptr="+ptr+", ptl="+ptl+", ic="+ic);
+	}
+
+	public int getArrival() {
+		return arrival;
+	}
+
+	public void setArrival(int arrival) {
+		this.arrival = arrival;
+	}
+
+	public int getCompletion() {
+		return completion;
+	}
+
+	public void setCompletion(int completion) {
+		this.completion = completion;
+	}
+
+	/**
+	 * CPU cycles between loading and termination
+	 * @return
+	 */
+	public int getTurnaround() {
+		return completion - arrival;
+	}
+
+	public int getSlices() {
+		return slices;
+	}
+
+	public void incrementSlices() {
+		slices++;
+	}
 }
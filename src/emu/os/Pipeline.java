@@ -0,0 +1,183 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ *
+ * MSCS 515
+ */
+package emu.os;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.logging.Logger;
+
+/**
+ * Runs the parsing of the deck and the writing of the output on threads
+ * of their own, so they overlap with the execution of the jobs. The stages
+ * are joined to the kernel by bounded queues: the parser stops when the
+ * kernel falls behind, and the kernel stops when the output spooler does.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public class Pipeline {
+	/**
+	 * For tracing
+	 */
+	static Logger trace = Logger.getLogger("emuos");
+	/**
+	 * Queued after the last job of the deck
+	 */
+	private static final Process END = new Process(null, "", 0, 0,
+			new ArrayList<String>(), new ArrayDeque<String>());
+	/**
+	 * Source of the parse stage
+	 */
+	private JobReader jobs;
+	/**
+	 * The output stage
+	 */
+	private OutputSpooler output;
+	/**
+	 * Jobs parsed and not taken by the kernel yet
+	 */
+	private ArrayBlockingQueue<Process> parsed;
+	private Thread parser;
+	/**
+	 * Capacity of the queue of parsed jobs
+	 */
+	private int depth;
+	/**
+	 * Why the parse stage stopped before the end of the deck, an
+	 * IOException or a RuntimeException
+	 */
+	private volatile Exception parseFailure;
+	/**
+	 * The kernel has taken the end of the deck
+	 */
+	private boolean ended;
+	/**
+	 * Times the parser found the queue of parsed jobs full
+	 */
+	private long parserWaits;
+	/**
+	 * Times the kernel found no parsed job
+	 */
+	private long jobWaits;
+
+	/**
+	 * Constructor
+	 * @param jobs The deck
+	 * @param output The output stage
+	 * @param depth Most jobs parsed ahead
+	 */
+	public Pipeline(JobReader jobs, OutputSpooler output, int depth) {
+		this.jobs = jobs;
+		this.output = output;
+		this.depth = depth;
+		parsed = new ArrayBlockingQueue<Process>(depth);
+	}
+
+	/**
+	 * Start the parse and output stages
+	 */
+	public void start() {
+		parser = new Thread(new Runnable() {
+			public void run() {
+				parse();
+			}
+		}, "emuos-parser");
+		parser.setDaemon(true);
+		parser.start();
+		output.start();
+	}
+
+	/**
+	 * Parse stage, runs until the end of the deck
+	 */
+	private void parse() {
+		try {
+			Process job;
+			while ((job = jobs.next()) != null) {
+				if (!parsed.offer(job)) {
+					parserWaits++;
+					parsed.put(job);
+				}
+			}
+		} catch (IOException e) {
+			parseFailure = e;
+		} catch (RuntimeException e) {
+			//A job the parser could not read ends the deck for the kernel too
+			parseFailure = e;
+		} catch (InterruptedException e) {
+			//The kernel stopped before the end of the deck
+			return;
+		}
+		try {
+			parsed.put(END);
+		} catch (InterruptedException e) {
+			return;
+		}
+	}
+
+	/**
+	 * The next job of the deck
+	 * @return The process or null if there are no more jobs
+	 * @throws IOException if the deck could not be read, or the
+	 * RuntimeException the parser stopped on
+	 */
+	public Process nextJob() throws IOException {
+		if (ended) {
+			return null;
+		}
+		try {
+			Process job = parsed.poll();
+			if (job == null) {
+				jobWaits++;
+				job = parsed.take();
+			}
+			if (job != END) {
+				return job;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for a job");
+		}
+		ended = true;
+		if (parseFailure instanceof IOException) {
+			throw (IOException) parseFailure;
+		} else if (parseFailure != null) {
+			throw (RuntimeException) parseFailure;
+		}
+		return null;
+	}
+
+	/**
+	 * Stop the parser if the kernel stopped early, close the deck, then
+	 * wait for the output to be written and close it
+	 * @throws IOException if the output could not be written
+	 */
+	public void close() throws IOException {
+		try {
+			parser.interrupt();
+			parser.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted closing the pipeline");
+		} finally {
+			try {
+				jobs.close();
+			} finally {
+				output.close();
+			}
+		}
+		trace.info(toString());
+	}
+
+	public String toString() {
+		return "pipeline depth "+depth+"   parser waits "+parserWaits+"   job waits "+jobWaits;
+	}
+}
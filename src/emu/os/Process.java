@@ -6,14 +6,14 @@
  */
 package emu.os;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Queue;
 import java.util.logging.Logger;
 
 import emu.hw.CPU;
-import emu.hw.HardwareInterruptException;
 import emu.hw.CPU.Interrupt;
 
 /**
@@ -33,6 +33,10 @@ public class Process {
 	public static final String DATA_START = "$DTA";
 	public static final String JOB_END = "$EOJ";
 	
+	/**
+	 * Kernel running the process
+	 */
+	Kernel kernel;
 	/**
 	 * Process Meta Data
 	 */
@@ -41,6 +45,23 @@ public class Process {
 	 * Buffers the program output
 	 */
 	ArrayList<String> outputBuffer;
+	/**
+	 * Program cards, until the program is loaded
+	 */
+	ArrayList<String> program;
+	/**
+	 * Data cards not read yet
+	 */
+	Queue<String> dataCards;
+	/**
+	 * What the process writes to the output file, held until the jobs
+	 * before it in the deck have been written
+	 */
+	StringWriter record;
+	/**
+	 * Writes to the record
+	 */
+	BufferedWriter recordWriter;
 	/**
 	 * Current execution time
 	 */
@@ -61,31 +82,48 @@ public class Process {
 	 * 
 	 */
 	boolean running;
+	/**
+	 * Set once the process has terminated and its output is complete
+	 */
+	boolean terminated;
 	
 	/**
 	 * Create a new process instance
+	 * @param kernel
 	 * @param id
 	 * @param maxTime
 	 * @param maxPrints
-	 * @param program
-	 * @param output
+	 * @param program The cards before $DTA
+	 * @param dataCards The cards after $DTA
 	 */
-	public Process(String id, int maxTime, int maxPrints, BufferedReader program, BufferedWriter output) {
+	public Process(Kernel kernel, String id, int maxTime, int maxPrints, ArrayList<String> program, Queue<String> dataCards) {
+		this.kernel = kernel;
 		outputBuffer = new ArrayList<String>();
+		this.program = program;
+		this.dataCards = dataCards;
+		record = new StringWriter();
+		recordWriter = new BufferedWriter(record);
 		this.errorInProcess = false;
 		pcb = new PCB(id, maxTime, maxPrints);
 	}
 	
 	/**
-	 * Called after program load
+	 * Called after program load, while the CPU still points at the new
+	 * page table. The process starts with empty registers.
 	 * @throws IOException 
 	 */
 	public void startExecution() throws IOException {
 		trace.fine("-->");
 		trace.info("starting process "+pcb.getId());
 		running = true;
-		Kernel.getInstance().getCpu().setIc(0);
-		Kernel.getInstance().getCpu().setSi(CPU.Interrupt.CLEAR);
+		CPU cpu = kernel.getCpu();
+		cpu.setIc(0);
+		cpu.setInstruction(null);
+		cpu.setGr(0, false);
+		cpu.setC(false);
+		cpu.setSi(CPU.Interrupt.CLEAR);
+		pcb.saveContext(cpu);
+		program = null;
 		setTerminationStatus("Normal Execution");
 		trace.fine("<--");
 	}
@@ -101,6 +139,66 @@ public class Process {
 		trace.fine("<--");
 	}
 	
+	/**
+	 * The program cards, null once the program has been loaded
+	 * @return
+	 */
+	public ArrayList<String> getProgram() {
+		return program;
+	}
+	
+	/**
+	 * Hand the process to the kernel of the CPU it is dispatched on
+	 * @param kernel
+	 */
+	void setKernel(Kernel kernel) {
+		this.kernel = kernel;
+	}
+	
+	/**
+	 * The next data card
+	 * @return The card or null if the process is out of data
+	 */
+	public String peekDataCard() {
+		return dataCards.peek();
+	}
+	
+	/**
+	 * Consume the next data card once it has been stored
+	 */
+	public void nextDataCard() {
+		dataCards.poll();
+	}
+	
+	/**
+	 * Writer for the process' part of the output file
+	 * @return
+	 */
+	public BufferedWriter getRecordWriter() {
+		return recordWriter;
+	}
+	
+	/**
+	 * The process' part of the output file held so far, which is taken
+	 * out of the record
+	 * @return
+	 * @throws IOException
+	 */
+	public String getRecord() throws IOException {
+		recordWriter.flush();
+		String held = record.toString();
+		record.getBuffer().setLength(0);
+		return held;
+	}
+	
+	/**
+	 * Process Control Block holding the saved context
+	 * @return
+	 */
+	public PCB getPcb() {
+		return pcb;
+	}
+	
 	/**
 	 * return output buffer to caller
 	 * @return
@@ -110,16 +208,25 @@ public class Process {
 	}
 	
 	/**
-	 * Increment time count and throw exception if max time limit is exceeded
-	 * @throws HardwareInterruptException if there is an error
+	 * Charge the instructions completed in slave mode to the process.
+	 * The CPU timer has already raised the time interrupt if the limit was passed.
+	 * @param ticks
 	 */
-	public void incrementTimeCountSlave() throws HardwareInterruptException {
-		if (!incrementTime()) {
-			Kernel.getInstance().getCpu().setTi(Interrupt.TIME_ERROR);
-			throw new HardwareInterruptException();
+	public void incrementTimeCountSlave(int ticks) {
+		currTime += ticks;
+		if (currTime > pcb.getMaxTime()) {
+			trace.severe("max time ("+pcb.getMaxTime()+") exceeded");
 		}
 	}
 	
+	/**
+	 * Time units left before the max time limit is exceeded 
+	 * @return
+	 */
+	public int getRemainingTime() {
+		return pcb.getMaxTime() - currTime;
+	}
+	
 	/**
 	 * Increment time count and throw exception if max time limit is exceeded
 	 * return false if there is an error
@@ -139,7 +246,7 @@ public class Process {
 			trace.fine("curr time: "+currTime+", max time="+pcb.getMaxTime());
 		} else {
 			trace.severe("max time ("+pcb.getMaxTime()+") exceeded");
-			Kernel.getInstance().getCpu().setTi(Interrupt.TIME_ERROR);
+			kernel.getCpu().setTi(Interrupt.TIME_ERROR);
 			return false;
 		}
 		return true;
@@ -165,8 +272,8 @@ public class Process {
 			return true;
 		} 
 		trace.severe("max prints ("+pcb.getMaxPrints()+") exceeded");
-		Kernel.getInstance().getCpu().setIOi(Interrupt.IO);
-		Kernel.getInstance().setError(2);
+		kernel.getCpu().setIOi(Interrupt.IO);
+		kernel.setError(2);
 		return false;
 	}
 	
@@ -242,4 +349,15 @@ public class Process {
 		trace.info("terminating process "+pcb.getId());
 		setRunning(false);
 	}
+	
+	/**
+	 * The output of the process is complete and can be written out
+	 */
+	public void setTerminated() {
+		terminated = true;
+	}
+
+	public boolean isTerminated() {
+		return terminated;
+	}
 }
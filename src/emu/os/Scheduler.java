@@ -0,0 +1,75 @@
+/**
+ * Group 5
+ * EmuOS: An Emulated Operating System
+ * 
+ * MSCS 515
+ */
+package emu.os;
+
+import java.util.Comparator;
+
+/**
+ * Orders the jobs read ahead from the deck and the processes waiting for
+ * the CPU. Jobs that compare equal keep the order they were queued in, so
+ * preempted processes still take turns.
+ * @author b.j.drew@gmail.com
+ * @author willaim.mosley@gmail.com
+ * @author claytonannam@gmail.com
+ *
+ */
+public enum Scheduler implements Comparator<PCB> {
+	/**
+	 * First come first served
+	 */
+	FIFO {
+		int cost(PCB pcb) {
+			return 0;
+		}
+	},
+	/**
+	 * Shortest job first, estimated by the time limit of the job card
+	 */
+	SJF {
+		int cost(PCB pcb) {
+			return pcb.getMaxTime();
+		}
+	},
+	/**
+	 * Lowest priority class of the job card first
+	 */
+	PRIORITY {
+		int cost(PCB pcb) {
+			return pcb.getPriority();
+		}
+	};
+	
+	/**
+	 * Estimated cost of a job, cheaper jobs go first
+	 * @param pcb
+	 * @return
+	 */
+	abstract int cost(PCB pcb);
+	
+	public int compare(PCB a, PCB b) {
+		int ca = cost(a);
+		int cb = cost(b);
+		if (ca != cb) {
+			return ca < cb ? -1 : 1;
+		}
+		return a.getQueued() < b.getQueued() ? -1 : (a.getQueued() == b.getQueued() ? 0 : 1);
+	}
+	
+	/**
+	 * Scheduler by name
+	 * @param name fifo, sjf or priority
+	 * @return
+	 */
+	public static Scheduler forName(String name) {
+		for (Scheduler s : values()) {
+			if (s.name().equalsIgnoreCase(name)) {
+				return s;
+			}
+		}
+		throw new IllegalArgumentException("unknown scheduler "+name);
+	}
+}
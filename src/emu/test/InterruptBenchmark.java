@@ -0,0 +1,96 @@
+package emu.test;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import emu.hw.CPU;
+import emu.os.Machine;
+
+/**
+ * Times the kernel on a generated deck where almost every other
+ * instruction is a GD or PD, so the run is dominated by interrupt handling.
+ */
+public class InterruptBenchmark {
+	/**
+	 * Data cards per job
+	 */
+	static final int CARDS = 2000;
+
+	/**
+	 * @param args
+	 * 		args[0] number of jobs (default 20)
+	 * 		args[1] number of timed runs (default 5)
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		int jobs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		File deck = File.createTempFile("emuos-bench", ".in");
+		File output = File.createTempFile("emuos-bench", ".out");
+		deck.deleteOnExit();
+		output.deleteOnExit();
+		writeDeck(deck, jobs);
+
+		Logger.getLogger("emuos").setLevel(Level.OFF);
+		//One machine runs every deck, as in a warm pool
+		Machine machine = Machine.Builder.fromProperties().build();
+		CPU cpu = machine.getCpu();
+
+		//Warm up
+		machine.run(deck.getPath(), output.getPath());
+
+		long best = Long.MAX_VALUE;
+		int instructions = 0;
+		for (int i = 0; i < runs; i++) {
+			int clock = cpu.getClock();
+			long start = System.nanoTime();
+			machine.run(deck.getPath(), output.getPath());
+			long elapsed = System.nanoTime() - start;
+			instructions = cpu.getClock() - clock;
+			best = Math.min(best, elapsed);
+			System.out.println("run "+i+": "+(elapsed/1000000)+" ms");
+		}
+		System.out.println(jobs+" jobs, "+instructions+" instructions per run");
+		System.out.println("best: "+(best/1000000)+" ms, "
+				+(instructions*1000000000L/best)+" instructions/s");
+	}
+
+	/**
+	 * Each job loops over GD, LR, CR, PD, BT until it runs out of data,
+	 * so two out of every five instructions interrupt.
+	 * @param deck
+	 * @param jobs
+	 * @throws IOException
+	 */
+	private static void writeDeck(File deck, int jobs) throws IOException {
+		BufferedWriter wr = new BufferedWriter(new FileWriter(deck));
+		for (int j = 0; j < jobs; j++) {
+			wr.write("$AMJ"+pad(j % 10000)+"99999999");
+			wr.newLine();
+			wr.write("GD50LR50CR50PD50BT00");
+			wr.newLine();
+			wr.write("$DTA");
+			wr.newLine();
+			for (int card = 0; card < CARDS; card++) {
+				wr.write("DATA CARD "+card+" OF JOB "+j);
+				wr.newLine();
+			}
+			wr.write("$EOJ");
+			wr.newLine();
+		}
+		wr.close();
+	}
+
+	private static String pad(int n) {
+		String s = Integer.toString(n);
+		while (s.length() < 4) {
+			s = "0"+s;
+		}
+		return s;
+	}
+}
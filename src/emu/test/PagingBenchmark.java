@@ -0,0 +1,95 @@
+package emu.test;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import emu.hw.CPU;
+import emu.hw.Geometry;
+import emu.hw.Pager;
+import emu.os.Machine;
+
+/**
+ * Runs a job that loops over eight data pages with each replacement policy
+ * in a memory too small to hold it, and reports faults and throughput.
+ */
+public class PagingBenchmark {
+	/**
+	 * Replacement policies to compare
+	 */
+	static final String[] POLICIES = {"fifo", "lru", "clock", "wsclock"};
+
+	/**
+	 * @param args
+	 * 		args[0] number of frames (default 8, the job needs 11 to run without paging)
+	 * 		args[1] number of timed runs per policy (default 5)
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		String frames = args.length > 0 ? args[0] : "8";
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		File deck = File.createTempFile("emuos-paging", ".in");
+		File output = File.createTempFile("emuos-paging", ".out");
+		File swap = File.createTempFile("emuos-paging", ".swap");
+		deck.deleteOnExit();
+		output.deleteOnExit();
+		swap.deleteOnExit();
+		writeDeck(deck);
+
+		Logger.getLogger("emuos").setLevel(Level.OFF);
+		Geometry d = Geometry.DEFAULT;
+		Machine.Builder settings = new Machine.Builder()
+				.setGeometry(new Geometry(d.getWordLength(), d.getWordsPerFrame(), 
+						Integer.parseInt(frames), d.getAddressSpace()))
+				.setSwapFile(swap.getPath());
+
+		for (String policy : POLICIES) {
+			//Warm up
+			settings.setPager(policy).build().run(deck.getPath(), output.getPath());
+
+			long best = Long.MAX_VALUE;
+			Machine machine = null;
+			for (int i = 0; i < runs; i++) {
+				//A new machine for each run, so its counters cover one run
+				machine = settings.build();
+				long start = System.nanoTime();
+				machine.run(deck.getPath(), output.getPath());
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			CPU cpu = machine.getCpu();
+			Pager pager = cpu.getPager();
+			System.out.println(pager);
+			System.out.println("    best: "+(best/1000000)+" ms, "
+					+(cpu.getClock()*1000000000L/best)+" instructions/s");
+		}
+	}
+
+	/**
+	 * One job that fills pages 2 to 9 with GDs and then loops over them
+	 * until it runs out of time, going back to page 2 between the others.
+	 * @param deck
+	 * @throws IOException
+	 */
+	private static void writeDeck(File deck) throws IOException {
+		BufferedWriter wr = new BufferedWriter(new FileWriter(deck));
+		wr.write("$AMJ000199999999");
+		wr.newLine();
+		wr.write("GD20GD30GD40GD50GD60GD70GD80GD90LR20SR30");
+		wr.newLine();
+		wr.write("LR20SR40LR20SR50LR60SR70LR20SR90CR90BT08");
+		wr.newLine();
+		wr.write("$DTA");
+		wr.newLine();
+		for (int page = 2; page < 10; page++) {
+			wr.write("DATA FOR PAGE "+page);
+			wr.newLine();
+		}
+		wr.write("$EOJ");
+		wr.newLine();
+		wr.close();
+	}
+}
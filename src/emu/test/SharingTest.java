@@ -0,0 +1,60 @@
+package emu.test;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import emu.os.Machine;
+
+/**
+ * Runs a job whose two program pages are the same, so they share a frame,
+ * and whose GD then writes to the shared page, without demand paging. The
+ * output must be the same as with sharing off. Exits with 1 if it is not.
+ */
+public class SharingTest {
+
+	/**
+	 * The program is loaded into pages 0 and 1, GD10 writes to page 1
+	 */
+	static final String DECK = "$AMJ000100100003\n"
+			+"GD10PD10H   GD10PD10H\n"
+			+"GD10PD10H   GD10PD10H\n"
+			+"$DTA\n"
+			+"hello\n"
+			+"$EOJ\n";
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		Logger.getLogger("emuos").setLevel(Level.OFF);
+		String shared = run(true);
+		String copied = run(false);
+		if (!shared.contains("hello") || !shared.equals(copied)) {
+			System.out.println("FAILED, with sharing:");
+			System.out.println(shared);
+			System.out.println("without sharing:");
+			System.out.println(copied);
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+
+	/**
+	 * Run the deck on a new machine
+	 * @param sharing
+	 * @return The output
+	 * @throws IOException
+	 */
+	private static String run(boolean sharing) throws IOException {
+		StringWriter output = new StringWriter();
+		new Machine.Builder().setSharing(sharing).build()
+				.run(new BufferedReader(new StringReader(DECK)), new BufferedWriter(output));
+		return output.toString();
+	}
+}